@@ -0,0 +1,106 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of an adapter to a single echo worker, per transport.
+ *
+ * roundTrip has one request in flight, pipelined sends PIPELINE requests before
+ * receiving the replies. Both include encoding, framing and the callback.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class AdapterRoundTripBenchmark {
+
+    static final int PIPELINE = 100;
+
+    @Param({"inproc", "ipc", "tcp"})
+    public String transport;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private ZMQ.Context ctx;
+    private ZmqWorker<Payload, Payload> worker;
+    private ZmqAdapterAsync<Payload, Payload> adapter;
+    private Payload payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        String endpoint = Endpoints.of(transport, "roundTrip");
+
+        ctx = ZMQ.context(1);
+        worker = new ZmqWorker<Payload, Payload>(ctx, endpoint, new EchoHandler(0));
+        worker.start();
+        adapter = new ZmqAdapterAsync<Payload, Payload>(ctx, endpoint);
+        payload = new Payload(42, payloadSize);
+
+        adapter.sendSync(payload, 5000); // connected
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        adapter.close();
+        ctx.term(); // stops the worker
+        worker.join();
+    }
+
+    @Benchmark
+    public void roundTrip(Blackhole bh) {
+        adapter.execute(payload, new ConsumingCallback(bh));
+        adapter.recvAndExec(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void pipelined(Blackhole bh) {
+        for (int i = 0; i < PIPELINE; i++) {
+            adapter.execute(payload, new ConsumingCallback(bh));
+        }
+        for (int i = 0; i < PIPELINE; i++) {
+            adapter.recvAndExec(0);
+        }
+    }
+
+    /**
+     * Callbacks settle once, so each request gets its own.
+     */
+    static class ConsumingCallback extends Callback<Payload> {
+
+        private final Blackhole bh;
+
+        ConsumingCallback(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void onSuccess(Payload reply) {
+            bh.consume(reply);
+        }
+
+        @Override
+        public void onError(RequestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Callback bookkeeping of ZmqAdapterAsync under steady load.
+ *
+ * Keeps outstanding callbacks pending and replaces one of them per operation.
+ * Compares CallbackTable with the HashMap<Integer, Callback> it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CallbackTableBenchmark {
+
+    static final Callback<String> CALLBACK = new Callback<String>() {
+        @Override
+        public void onSuccess(String reply) {}
+    };
+
+    @Param({"100", "10000"})
+    public int outstanding;
+
+    private CallbackTable<String> table;
+    private HashMap<Integer, Callback<String>> map;
+    private int[] tableIds;
+    private int[] mapIds;
+    private int counter;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        table = new CallbackTable<String>();
+        map = new HashMap<Integer, Callback<String>>();
+        tableIds = new int[outstanding];
+        mapIds = new int[outstanding];
+
+        for (int i = 0; i < outstanding; i++) {
+            tableIds[i] = table.put(CALLBACK);
+            mapIds[i] = counter;
+            map.put(counter++, CALLBACK);
+        }
+    }
+
+    @Benchmark
+    public int callbackTable() {
+        int i = next();
+        Callback<String> callback = table.remove(tableIds[i]);
+        return tableIds[i] = table.put(callback);
+    }
+
+    @Benchmark
+    public int hashMap() {
+        int i = next();
+        Callback<String> callback = map.remove(mapIds[i]);
+        map.put(counter, callback);
+        return mapIds[i] = counter++;
+    }
+
+    private int next() {
+        if (++next == outstanding) next = 0;
+        return next;
+    }
+}
@@ -0,0 +1,67 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of payloads per codec and payload size.
+ *
+ * encode allocates the result array, encodeIntoSendBuffer writes into the pooled
+ * buffer of the thread, as TransferHelper does on send.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    @Param({"JAVA", "XML"})
+    public Codec codec;
+
+    private Payload payload;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        payload = new Payload(42, payloadSize);
+        encoded = SerializationHelper.serialize(payload, codec);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return SerializationHelper.serialize(payload, codec);
+    }
+
+    @Benchmark
+    public int encodeIntoSendBuffer() {
+        SendBuffers buffers = SendBuffers.acquire();
+        try {
+            SerializationHelper.serialize(payload, codec, buffers.payload);
+            return buffers.payload.size();
+        } finally {
+            buffers.release();
+        }
+    }
+
+    @Benchmark
+    public Serializable decode() throws CheckedSerializationException {
+        return SerializationHelper.deserialize(encoded, codec);
+    }
+}
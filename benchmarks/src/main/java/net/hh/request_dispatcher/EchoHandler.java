@@ -0,0 +1,21 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Replies with the request, after burning the given CPU tokens (see Blackhole.consumeCPU()).
+ */
+class EchoHandler implements RequestHandler<Payload, Payload> {
+
+    private final long tokens;
+
+    EchoHandler(long tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public Payload handleRequest(Payload request) throws Exception {
+        if (tokens > 0) Blackhole.consumeCPU(tokens);
+        return request;
+    }
+}
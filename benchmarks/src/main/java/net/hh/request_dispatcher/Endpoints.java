@@ -0,0 +1,44 @@
+package net.hh.request_dispatcher;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fresh endpoints of a transport, so trials never rebind a socket of a previous one.
+ */
+final class Endpoints {
+
+    private static final AtomicInteger next = new AtomicInteger();
+    private static final long run = System.nanoTime();   // separates forks sharing the tmp dir
+
+    private Endpoints() {}
+
+    /**
+     * @param transport     inproc, ipc or tcp. tcp binds to a free port on loopback.
+     */
+    static String of(String transport, String name) {
+        int n = next.incrementAndGet();
+        if (transport.equals("inproc")) {
+            return "inproc://" + name + n;
+        } else if (transport.equals("ipc")) {
+            return "ipc://" + System.getProperty("java.io.tmpdir") + "/" + name + "-" + run + "-" + n;
+        } else if (transport.equals("tcp")) {
+            return "tcp://127.0.0.1:" + freePort();
+        }
+        throw new IllegalArgumentException("Unknown transport " + transport);
+    }
+
+    private static int freePort() {
+        try {
+            ServerSocket socket = new ServerSocket(0);
+            try {
+                return socket.getLocalPort();
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zeromq.ZMQ;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replies per second gathered by gatherResults() from many services at once.
+ *
+ * Each service has its own request class, so that requests are routed to as many adapters
+ * of a single dispatcher. Each invocation sends REQUESTS requests, spread evenly over the
+ * services, and gathers their replies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class FanInBenchmark {
+
+    static final int REQUESTS = 2000;
+
+    public static class FanInReq implements Serializable {}
+
+    public static class Req00 extends FanInReq {}
+    public static class Req01 extends FanInReq {}
+    public static class Req02 extends FanInReq {}
+    public static class Req03 extends FanInReq {}
+    public static class Req04 extends FanInReq {}
+    public static class Req05 extends FanInReq {}
+    public static class Req06 extends FanInReq {}
+    public static class Req07 extends FanInReq {}
+    public static class Req08 extends FanInReq {}
+    public static class Req09 extends FanInReq {}
+    public static class Req10 extends FanInReq {}
+    public static class Req11 extends FanInReq {}
+    public static class Req12 extends FanInReq {}
+    public static class Req13 extends FanInReq {}
+    public static class Req14 extends FanInReq {}
+    public static class Req15 extends FanInReq {}
+    public static class Req16 extends FanInReq {}
+    public static class Req17 extends FanInReq {}
+    public static class Req18 extends FanInReq {}
+    public static class Req19 extends FanInReq {}
+    public static class Req20 extends FanInReq {}
+    public static class Req21 extends FanInReq {}
+    public static class Req22 extends FanInReq {}
+    public static class Req23 extends FanInReq {}
+    public static class Req24 extends FanInReq {}
+    public static class Req25 extends FanInReq {}
+    public static class Req26 extends FanInReq {}
+    public static class Req27 extends FanInReq {}
+    public static class Req28 extends FanInReq {}
+    public static class Req29 extends FanInReq {}
+    public static class Req30 extends FanInReq {}
+    public static class Req31 extends FanInReq {}
+    public static class Req32 extends FanInReq {}
+    public static class Req33 extends FanInReq {}
+    public static class Req34 extends FanInReq {}
+    public static class Req35 extends FanInReq {}
+    public static class Req36 extends FanInReq {}
+    public static class Req37 extends FanInReq {}
+    public static class Req38 extends FanInReq {}
+    public static class Req39 extends FanInReq {}
+
+    static final Class[] REQUEST_CLASSES = {
+            Req00.class, Req01.class, Req02.class, Req03.class, Req04.class,
+            Req05.class, Req06.class, Req07.class, Req08.class, Req09.class,
+            Req10.class, Req11.class, Req12.class, Req13.class, Req14.class,
+            Req15.class, Req16.class, Req17.class, Req18.class, Req19.class,
+            Req20.class, Req21.class, Req22.class, Req23.class, Req24.class,
+            Req25.class, Req26.class, Req27.class, Req28.class, Req29.class,
+            Req30.class, Req31.class, Req32.class, Req33.class, Req34.class,
+            Req35.class, Req36.class, Req37.class, Req38.class, Req39.class
+    };
+
+    @Param({"1", "10", "40"})   // divide REQUESTS
+    public int services;
+
+    private ZMQ.Context ctx;
+    private final List<ZmqWorker<FanInReq, String>> workers = new ArrayList<ZmqWorker<FanInReq, String>>();
+    private Dispatcher dp;
+    private FanInReq[] requests;
+
+    private int replies;
+    private final Callback<String> callback = new Callback<String>() {
+        @Override
+        public void onSuccess(String reply) {
+            replies++;
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        ctx = ZMQ.context(1);
+        dp = new Dispatcher(ctx);
+        requests = new FanInReq[services];
+
+        for (int i = 0; i < services; i++) {
+            String endpoint = Endpoints.of("inproc", "fanIn");
+            ZmqWorker<FanInReq, String> worker = new ZmqWorker<FanInReq, String>(ctx, endpoint,
+                    new RequestHandler<FanInReq, String>() {
+                        @Override
+                        public String handleRequest(FanInReq request) throws Exception {
+                            return "OK";
+                        }
+                    });
+            worker.start();
+            workers.add(worker);
+
+            dp.registerService(REQUEST_CLASSES[i], endpoint);
+            requests[i] = (FanInReq) REQUEST_CLASSES[i].newInstance();
+            dp.executeSync(requests[i], 5000); // connected
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term(); // stops the workers
+        for (ZmqWorker<FanInReq, String> worker : workers) {
+            worker.join();
+        }
+
+        if (replies % REQUESTS != 0) throw new IllegalStateException("Missing replies: " + replies);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public int gather() {
+        int perService = REQUESTS / services;
+        for (int j = 0; j < perService; j++) {
+            for (int i = 0; i < services; i++) {
+                dp.execute(requests[i], callback);
+            }
+        }
+        dp.gatherResults();
+        return replies;
+    }
+}
@@ -0,0 +1,81 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing of an encoded payload into a multipart message and back, without sockets.
+ * The envelope holds a single routing frame, as seen by a worker behind a ROUTER socket.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FramingBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    @Param({"false", "true"})
+    public boolean traced;
+
+    private byte[] payload;
+    private byte[] routingId;
+    private long[] trace;
+    private byte[] header;
+
+    @Setup
+    public void setUp() {
+        payload = SerializationHelper.serialize(new Payload(42, payloadSize), Codec.JAVA);
+        routingId = new byte[]{0, 1, 2, 3, 4};
+        trace = traced ? new long[RequestTrace.STAMPS] : null;
+        header = TransferHeader.encode(0, Codec.JAVA.getId(), 17, 1, TransferHeader.NO_DEADLINE);
+    }
+
+    @Benchmark
+    public ZMsg frame() {
+        return wrapper().toMessage();
+    }
+
+    @Benchmark
+    public TransferWrapperRaw parse() throws TransferHelper.ProtocolException {
+        // parsing consumes the message
+        return new TransferWrapperRaw(wrapper().toMessage());
+    }
+
+    @Benchmark
+    public byte[] encodeHeader() {
+        return TransferHeader.encode(0, Codec.JAVA.getId(), 17, 1, TransferHeader.NO_DEADLINE);
+    }
+
+    @Benchmark
+    public void decodeHeader(Blackhole bh) throws TransferHelper.ProtocolException {
+        bh.consume(TransferHeader.versionOf(header));
+        bh.consume(TransferHeader.flags(header));
+        bh.consume(TransferHeader.codec(header));
+        bh.consume(TransferHeader.callbackId(header));
+        bh.consume(TransferHeader.requestTypeId(header));
+        bh.consume(TransferHeader.budget(header));
+    }
+
+    private TransferWrapperRaw wrapper() {
+        return new TransferWrapperRaw(TransferHeader.VERSION_2, Codec.JAVA, 0, payload, 17, 1,
+                TransferHeader.NO_DEADLINE, new ZFrame[]{new ZFrame(routingId)}, trace);
+    }
+}
@@ -0,0 +1,284 @@
+package net.hh.request_dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Open loop load generator. Sends requests at a fixed rate to a ZmqWorkerProxy on loopback,
+ * for each rate of a sweep, and reports throughput and latency percentiles.
+ *
+ * Requests are scheduled at start + i / rate, independent of the replies. Latency is measured
+ * from the scheduled time, so a sender that falls behind (coordinated omission) still accounts
+ * the delay to every request it could not send in time. The latency from the actual send is
+ * reported as well (p99 send), the difference shows how much a closed loop benchmark would hide.
+ *
+ * The Dispatcher runs in REACTOR mode, so sending never waits for replies. Errors and timeouts
+ * are counted, and recorded with the latency at which they were noticed.
+ *
+ * Usage:
+ *
+ *      java -cp benchmarks.jar net.hh.request_dispatcher.LoadGenerator
+ *          [--rates 1000,2000,5000] [--duration 10] [--warmup 5]
+ *          [--workers 4] [--service-time 100] [--payload 128]
+ *          [--timeout 1000] [--transport tcp]
+ *
+ * duration and warmup in s, service time (busy spin per request) in us, timeout in ms.
+ * Transport is tcp or ipc.
+ */
+public class LoadGenerator {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double SATURATED = 0.95;   // of the target rate
+
+    private final Dispatcher dp;
+    private final Payload payload;
+    private final int timeout;
+
+    LoadGenerator(Dispatcher dp, Payload payload, int timeout) {
+        this.dp = dp;
+        this.payload = payload;
+        this.timeout = timeout;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+
+        String endpoint = Endpoints.of(config.transport, "loadGenerator");
+
+        // separate contexts, as for a client and a server process
+        ZmqWorkerProxy proxy = new ZmqWorkerProxy(endpoint);
+        proxy.add(config.workers, new SpinningHandler(TimeUnit.MICROSECONDS.toNanos(config.serviceTime)));
+        proxy.startWorkers();
+
+        Dispatcher dp = new Dispatcher(Dispatcher.Mode.REACTOR);
+        dp.registerService(Payload.class, endpoint);
+
+        try {
+            LoadGenerator generator = new LoadGenerator(dp, new Payload(42, config.payload), config.timeout);
+
+            System.out.println(config);
+            if (config.warmup > 0) {
+                generator.run(config.rates.get(0), config.warmup * SECOND);
+            }
+
+            System.out.println(Result.HEADER);
+            for (int rate : config.rates) {
+                System.out.println(generator.run(rate, config.duration * SECOND));
+            }
+        } finally {
+            dp.shutdown();
+            proxy.shutdown();
+        }
+    }
+
+    /**
+     * Sends at rate for duration and waits for the outstanding replies.
+     */
+    Result run(final int rate, final long duration) throws InterruptedException {
+        final LatencyHistogram latency = new LatencyHistogram();      // from the scheduled time
+        final LatencyHistogram sendLatency = new LatencyHistogram();  // from the actual send
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong errored = new AtomicLong();
+        final AtomicLong timedOut = new AtomicLong();
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicLong lastReply = new AtomicLong();
+
+        final long start = System.nanoTime();
+        final long end = start + duration;
+
+        for (long i = 0; ; i++) {
+            final long scheduled = start + (long) ((double) i * SECOND / rate);
+            if (scheduled - end >= 0) break;
+
+            long now;
+            while ((now = System.nanoTime()) - scheduled < 0) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+
+            final long sentAt = now;
+            outstanding.incrementAndGet();
+            dp.<Payload>executeAsync(payload, timeout).whenComplete(new BiConsumer<Payload, Throwable>() {
+                @Override
+                public void accept(Payload reply, Throwable e) {
+                    long receivedAt = System.nanoTime();
+                    latency.record(receivedAt - scheduled);
+                    sendLatency.record(receivedAt - sentAt);
+
+                    if (e == null) {
+                        succeeded.incrementAndGet();
+                    } else if (e instanceof TimeoutException) {
+                        timedOut.incrementAndGet();
+                    } else {
+                        errored.incrementAndGet();
+                    }
+
+                    long last;
+                    while ((last = lastReply.get()) - receivedAt < 0 && !lastReply.compareAndSet(last, receivedAt)) {
+                        // retry
+                    }
+                    outstanding.decrementAndGet();
+                }
+            });
+        }
+
+        // replies of the last requests, all of them settle within the timeout
+        long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) + SECOND;
+        while (outstanding.get() > 0 && System.nanoTime() - drainDeadline < 0) {
+            Thread.sleep(1);
+        }
+
+        long elapsed = Math.max(lastReply.get(), end) - start;
+        return new Result(rate, succeeded.get() * (double) SECOND / elapsed,
+                latency.snapshot(), sendLatency.snapshot(),
+                errored.get(), timedOut.get(), outstanding.get());
+    }
+
+    // RESULTS //
+
+    static class Result {
+
+        static final String HEADER = String.format(Locale.ROOT, "%10s %12s %10s %10s %10s %10s %12s %8s %8s %8s",
+                "rate/s", "throughput/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "p99 send ms",
+                "errors", "timeouts", "lost");
+
+        final int rate;
+        final double throughput;
+        final long[] latency;
+        final long[] sendLatency;
+        final long errored;
+        final long timedOut;
+        final long lost;    // not settled after timeout
+
+        Result(int rate, double throughput, long[] latency, long[] sendLatency,
+               long errored, long timedOut, long lost) {
+            this.rate = rate;
+            this.throughput = throughput;
+            this.latency = latency;
+            this.sendLatency = sendLatency;
+            this.errored = errored;
+            this.timedOut = timedOut;
+            this.lost = lost;
+        }
+
+        boolean isSaturated() {
+            return throughput < SATURATED * rate || timedOut > 0 || lost > 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%10d %12.0f %10.3f %10.3f %10.3f %10.3f %12.3f %8d %8d %8d%s",
+                    rate, throughput,
+                    ms(latency, 50), ms(latency, 99), ms(latency, 99.9), ms(latency, 100),
+                    ms(sendLatency, 99),
+                    errored, timedOut, lost,
+                    isSaturated() ? "  saturated" : "");
+        }
+
+        private static double ms(long[] counts, double percentile) {
+            return LatencyHistogram.valueAtPercentile(counts, percentile) / 1e6;
+        }
+    }
+
+    // SERVICE //
+
+    /**
+     * Busy spins for the service time, like a CPU bound handler, and echoes the request.
+     */
+    static class SpinningHandler implements RequestHandler<Payload, Payload> {
+
+        private final long serviceNanos;
+
+        SpinningHandler(long serviceNanos) {
+            this.serviceNanos = serviceNanos;
+        }
+
+        @Override
+        public Payload handleRequest(Payload request) throws Exception {
+            long until = System.nanoTime() + serviceNanos;
+            while (System.nanoTime() - until < 0) {
+                // spin
+            }
+            return request;
+        }
+    }
+
+    // CONFIGURATION //
+
+    static class Config {
+
+        List<Integer> rates = new ArrayList<Integer>();
+        int duration = 10;
+        int warmup = 5;
+        int workers = 4;
+        int serviceTime = 100;
+        int payload = 128;
+        int timeout = 1000;
+        String transport = "tcp";
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 == args.length) throw new IllegalArgumentException("Missing value of " + option);
+                String value = args[++i];
+
+                if (option.equals("--rates")) {
+                    for (String rate : value.split(",")) {
+                        config.rates.add(Integer.parseInt(rate.trim()));
+                    }
+                } else if (option.equals("--duration")) {
+                    config.duration = Integer.parseInt(value);
+                } else if (option.equals("--warmup")) {
+                    config.warmup = Integer.parseInt(value);
+                } else if (option.equals("--workers")) {
+                    config.workers = Integer.parseInt(value);
+                } else if (option.equals("--service-time")) {
+                    config.serviceTime = Integer.parseInt(value);
+                } else if (option.equals("--payload")) {
+                    config.payload = Integer.parseInt(value);
+                } else if (option.equals("--timeout")) {
+                    config.timeout = Integer.parseInt(value);
+                } else if (option.equals("--transport")) {
+                    config.transport = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+
+            if (config.rates.isEmpty()) {
+                // around the capacity of the default service: 4 workers at 100us
+                for (int rate : new int[]{5000, 10000, 20000, 30000, 35000, 40000, 45000}) {
+                    config.rates.add(rate);
+                }
+            }
+            for (int rate : config.rates) {
+                if (rate <= 0) throw new IllegalArgumentException("Rate " + rate);
+            }
+            if (!config.transport.equals("tcp") && !config.transport.equals("ipc")) {
+                throw new IllegalArgumentException("Transport " + config.transport + ", expected tcp or ipc");
+            }
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return "LoadGenerator{" +
+                    "rates=" + rates +
+                    ", duration=" + duration + "s" +
+                    ", warmup=" + warmup + "s" +
+                    ", workers=" + workers +
+                    ", serviceTime=" + serviceTime + "us" +
+                    ", payload=" + payload + "B" +
+                    ", timeout=" + timeout + "ms" +
+                    ", transport=" + transport +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Request object of the benchmarks: a few fields and a byte array of the given size.
+ */
+public class Payload implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int id;
+    private final String name;
+    private final byte[] data;
+
+    public Payload(int id, int size) {
+        this.id = id;
+        this.name = "payload-" + id;
+        this.data = new byte[size];
+        new Random(id).nextBytes(data);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,81 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end throughput of a Dispatcher against a ZmqWorkerProxy, per number of workers
+ * and work per request. Each invocation executes a batch of BATCH requests and gathers
+ * their results, so up to BATCH requests are in flight.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class ProxyThroughputBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    @Param({"0", "1000"})
+    public long handlerTokens;
+
+    @Param({"inproc", "tcp"})
+    public String transport;
+
+    private ZMQ.Context ctx;
+    private ZmqWorkerProxy proxy;
+    private Dispatcher dp;
+    private Payload payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        String endpoint = Endpoints.of(transport, "proxy");
+
+        ctx = ZMQ.context(1);
+        proxy = new ZmqWorkerProxy(ctx, endpoint);
+        proxy.add(workers, new EchoHandler(handlerTokens));
+        proxy.startWorkers();
+
+        dp = new Dispatcher(ctx);
+        dp.registerService(Payload.class, endpoint);
+        payload = new Payload(42, 128);
+
+        dp.executeSync(payload, 5000); // connected
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        proxy.shutdown();
+        dp.shutdown();
+        ctx.term(); // stops the proxy loop
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void dispatch(Blackhole bh) {
+        for (int i = 0; i < BATCH; i++) {
+            dp.execute(payload, new AdapterRoundTripBenchmark.ConsumingCallback(bh));
+        }
+        dp.gatherResults();
+    }
+}
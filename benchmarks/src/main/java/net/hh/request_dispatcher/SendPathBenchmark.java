@@ -0,0 +1,72 @@
+package net.hh.request_dispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending one way requests to an echo worker over inproc.
+ *
+ * Compares the pooled send path with building a TransferWrapper and a ZMsg per request.
+ * gc.alloc.rate.norm reports the bytes allocated by the sending thread per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SendPathBenchmark {
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private ZMQ.Context ctx;
+    private ZmqWorker<Payload, Payload> worker;
+    private ZMQ.Socket socket;
+    private Payload payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        String endpoint = Endpoints.of("inproc", "sendPath");
+
+        ctx = ZMQ.context(1);
+        worker = new ZmqWorker<Payload, Payload>(ctx, endpoint, new EchoHandler(0));
+        worker.start();
+
+        socket = ctx.socket(ZMQ.DEALER);
+        socket.setLinger(100);
+        socket.connect(endpoint);
+        payload = new Payload(42, payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        socket.close();
+        ctx.term(); // stops the worker
+        worker.join();
+    }
+
+    @Benchmark
+    public void transferWrapper() throws CheckedSerializationException {
+        TransferHelper.sendMessage(socket, new TransferWrapper(payload, -1));
+    }
+
+    @Benchmark
+    public int pooled() {
+        return TransferHelper.sendRequest(socket, payload, -1, TransferHeader.NO_DEADLINE,
+                TransferHeader.VERSION_2, Codec.JAVA);
+    }
+}
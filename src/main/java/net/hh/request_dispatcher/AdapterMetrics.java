@@ -0,0 +1,144 @@
+package net.hh.request_dispatcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics recorded by an adapter. Registered as MBean by the Dispatcher.
+ *
+ * Recorded by the thread that owns the adapter, read by any thread.
+ */
+public class AdapterMetrics implements AdapterMetricsMBean {
+
+    private final String endpoint;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong errored = new AtomicLong();
+    private final AtomicLong unsent = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong orphaned = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    AdapterMetrics(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    // RECORDING //
+
+    void sent() {
+        sent.incrementAndGet();
+    }
+
+    /**
+     * @param sentAt    System.nanoTime() when the request was sent
+     */
+    void succeeded(long sentAt) {
+        latency.record(System.nanoTime() - sentAt);
+        succeeded.incrementAndGet();
+    }
+
+    /**
+     * @param sentAt    System.nanoTime() when the request was sent. -1 if unknown.
+     */
+    void errored(long sentAt) {
+        if (sentAt != -1) latency.record(System.nanoTime() - sentAt);
+        errored.incrementAndGet();
+    }
+
+    /**
+     * Request with a callback, that could not be sent.
+     */
+    void unsent() {
+        unsent.incrementAndGet();
+    }
+
+    void timedOut(int count) {
+        timedOut.addAndGet(count);
+    }
+
+    void cancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    void orphaned() {
+        orphaned.incrementAndGet();
+    }
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(sent.get(), succeeded.get(), errored.get(), unsent.get(), timedOut.get(),
+                cancelled.get(), orphaned.get(), latency.snapshot());
+    }
+
+    // MBEAN //
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public long getSent() {
+        return sent.get();
+    }
+
+    @Override
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    @Override
+    public long getErrored() {
+        return errored.get();
+    }
+
+    @Override
+    public long getUnsent() {
+        return unsent.get();
+    }
+
+    @Override
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    @Override
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    @Override
+    public long getOrphaned() {
+        return orphaned.get();
+    }
+
+    @Override
+    public long getInFlight() {
+        return snapshot().getInFlight();
+    }
+
+    @Override
+    public double getLatencyMean() {
+        return snapshot().getLatencyMean();
+    }
+
+    @Override
+    public double getLatencyP50() {
+        return snapshot().getLatency(50);
+    }
+
+    @Override
+    public double getLatencyP99() {
+        return snapshot().getLatency(99);
+    }
+
+    @Override
+    public double getLatencyP999() {
+        return snapshot().getLatency(99.9);
+    }
+
+    @Override
+    public double getLatencyMax() {
+        return snapshot().getLatencyMax();
+    }
+}
@@ -0,0 +1,35 @@
+package net.hh.request_dispatcher;
+
+/**
+ * JMX view of the metrics of an endpoint. Latencies in ms.
+ */
+public interface AdapterMetricsMBean {
+
+    String getEndpoint();
+
+    long getSent();
+
+    long getSucceeded();
+
+    long getErrored();
+
+    long getUnsent();
+
+    long getTimedOut();
+
+    long getCancelled();
+
+    long getOrphaned();
+
+    long getInFlight();
+
+    double getLatencyMean();
+
+    double getLatencyP50();
+
+    double getLatencyP99();
+
+    double getLatencyP999();
+
+    double getLatencyMax();
+}
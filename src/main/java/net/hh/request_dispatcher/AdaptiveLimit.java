@@ -0,0 +1,106 @@
+package net.hh.request_dispatcher;
+
+/**
+ * Concurrency limit of a service, adapted to the observed round trip time.
+ * See Backpressure.withAdaptiveLimit().
+ *
+ * Gradient style: the limit follows limit * minRtt / rtt plus a small allowance for queueing,
+ * so it shrinks as requests start to queue at the workers and grows while the latency stays
+ * near the no-load floor. A timed out request cuts the limit by BACKOFF (AIMD style).
+ *
+ * The no-load floor minRtt is re-measured every PROBE_INTERVAL samples, so the limit follows
+ * a service that permanently got slower or faster. The limit does not grow while fewer than
+ * half of it are in use, since such samples say nothing about the capacity.
+ *
+ * Thread safe. Must not be shared between services.
+ */
+public class AdaptiveLimit {
+
+    static final double BACKOFF = 0.9;
+    static final double SMOOTHING = 0.2;        // weight of a new sample
+    static final int PROBE_INTERVAL = 1000;     // samples after which minRtt is re-measured
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    // guarded by this
+    private double estimatedLimit;
+    private double smoothedRtt = 0;             // in ns
+    private long minRtt = Long.MAX_VALUE;       // in ns
+    private int samples = 0;
+
+    private volatile int limit;
+
+    /**
+     * @param initialLimit  limit before the first sample
+     * @param minLimit      lower bound, > 0
+     * @param maxLimit      upper bound
+     */
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0) throw new IllegalArgumentException("Min limit " + minLimit);
+        if (minLimit > maxLimit) throw new IllegalArgumentException("Min limit " + minLimit + " > max limit " + maxLimit);
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Initial limit " + initialLimit);
+        }
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * @param rttNanos  from sending the request to its reply
+     * @param inFlight  requests in flight when the reply arrived, including this one
+     */
+    synchronized void onSample(long rttNanos, int inFlight) {
+        if (samples++ % PROBE_INTERVAL == 0) {
+            minRtt = rttNanos;
+            smoothedRtt = rttNanos;
+        }
+        minRtt = Math.min(minRtt, rttNanos);
+        smoothedRtt = (1 - SMOOTHING) * smoothedRtt + SMOOTHING * rttNanos;
+
+        double gradient = Math.max(0.5, Math.min(1.0, minRtt / smoothedRtt));
+        double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+
+        if (target > estimatedLimit && inFlight < estimatedLimit / 2) return; // not limited by us
+
+        update((1 - SMOOTHING) * estimatedLimit + SMOOTHING * target);
+    }
+
+    /**
+     * Called for a timed out request.
+     */
+    synchronized void onDrop() {
+        update(estimatedLimit * BACKOFF);
+    }
+
+    private void update(double estimate) {
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimate));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * @return current limit of requests in flight
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return observed no-load round trip time in ms. -1 before the first sample.
+     */
+    public synchronized double getMinRtt() {
+        return samples == 0 ? -1 : minRtt / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimit{" +
+                "limit=" + limit +
+                ", minLimit=" + minLimit +
+                ", maxLimit=" + maxLimit +
+                '}';
+    }
+}
@@ -0,0 +1,20 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of RequestHandler.
+ *
+ * handleRequest() is called on the ZmqWorker thread and must not block. The reply is sent
+ * when the returned future completes, on any thread. A worker keeps up to maxInFlight
+ * requests in flight (see ZmqWorker.setMaxInFlight()).
+ *
+ * Exceptions thrown or completing the future are sent to the client as RequestException.
+ */
+public interface AsyncRequestHandler<RequestType extends Serializable, ReplyType extends Serializable>
+        extends Serializable {
+
+    public CompletableFuture<ReplyType> handleRequest(RequestType request) throws Exception;
+
+}
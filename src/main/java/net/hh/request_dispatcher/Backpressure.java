@@ -0,0 +1,288 @@
+package net.hh.request_dispatcher;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the requests in flight to a service. Passed to Dispatcher.registerService().
+ *
+ * Each endpoint of the service admits maxInFlight requests with a pending callback.
+ * A request beyond the limit is handled according to the Overflow strategy:
+ * - FAIL:  rejected, onError() is called with a RequestException.
+ * - BLOCK: the calling thread waits up to blockTimeout ms for a request to settle, then rejects.
+ * - QUEUE: queued on the client, and sent when a request settles. Rejected if maxQueued
+ *          requests are queued already. Time spent in the queue counts towards the timeout.
+ *
+ * With an AdaptiveLimit, the service admits as many requests as the limit currently allows,
+ * instead of maxInFlight per endpoint.
+ *
+ * Rejected requests are never sent. One way requests are not counted.
+ * In CALLER_THREAD mode, a blocked execute() receives replies and executes their callbacks.
+ * The socket high water mark is set to highWaterMark for each endpoint. Sends that
+ * hit it fail immediately with onError() instead of blocking.
+ *
+ * Counters can be read from any thread. Must not be shared between services.
+ */
+public class Backpressure {
+
+    public static final int DEFAULT_HIGH_WATER_MARK = 1000;
+
+    public static enum Overflow { FAIL, BLOCK, QUEUE }
+
+    private final Overflow overflow;
+    private final int maxInFlight;
+    private final int blockTimeout;
+    private final int maxQueued;
+    private final int highWaterMark;
+    private final AdaptiveLimit adaptiveLimit;
+
+    private volatile int capacity = 0;      // maxInFlight times endpoints, set on registration
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Object monitor = new Object();    // blocked threads wait here
+    private volatile int waiting = 0;               // written under monitor
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private Backpressure(Overflow overflow, int maxInFlight, int blockTimeout, int maxQueued, int highWaterMark,
+                         AdaptiveLimit adaptiveLimit) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Max in flight " + maxInFlight);
+        if (highWaterMark <= 0) throw new IllegalArgumentException("High water mark " + highWaterMark);
+
+        this.overflow = overflow;
+        this.maxInFlight = maxInFlight;
+        this.blockTimeout = blockTimeout;
+        this.maxQueued = maxQueued;
+        this.highWaterMark = highWaterMark;
+        this.adaptiveLimit = adaptiveLimit;
+    }
+
+    /**
+     * Reject requests beyond maxInFlight.
+     */
+    public static Backpressure failFast(int maxInFlight) {
+        return new Backpressure(Overflow.FAIL, maxInFlight, 0, 0, DEFAULT_HIGH_WATER_MARK, null);
+    }
+
+    /**
+     * Block the calling thread for up to timeout ms, then reject.
+     */
+    public static Backpressure block(int maxInFlight, int timeout) {
+        return new Backpressure(Overflow.BLOCK, maxInFlight, timeout, 0, DEFAULT_HIGH_WATER_MARK, null);
+    }
+
+    /**
+     * Queue up to maxQueued requests on the client, then reject.
+     */
+    public static Backpressure queue(int maxInFlight, int maxQueued) {
+        return new Backpressure(Overflow.QUEUE, maxInFlight, 0, maxQueued, DEFAULT_HIGH_WATER_MARK, null);
+    }
+
+    /**
+     * @return copy with another socket high water mark.
+     */
+    public Backpressure withHighWaterMark(int highWaterMark) {
+        return new Backpressure(overflow, maxInFlight, blockTimeout, maxQueued, highWaterMark, adaptiveLimit);
+    }
+
+    /**
+     * @return copy, that bounds the requests in flight by the adaptive limit instead of maxInFlight.
+     */
+    public Backpressure withAdaptiveLimit(AdaptiveLimit adaptiveLimit) {
+        return new Backpressure(overflow, maxInFlight, blockTimeout, maxQueued, highWaterMark, adaptiveLimit);
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getBlockTimeout() {
+        return blockTimeout;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return null for a static limit
+     */
+    public AdaptiveLimit getAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
+    // ADMISSION //
+
+    /**
+     * Called on registration of the service.
+     */
+    synchronized void attach(int endpoints) {
+        if (capacity != 0) throw new IllegalStateException("Backpressure is already used by another service.");
+        capacity = maxInFlight * endpoints;
+    }
+
+    boolean tryAcquire() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * @param timeout   in ms. -1 for infinite wait.
+     * @return false on timeout or interrupt
+     */
+    boolean tryAcquire(int timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        synchronized (monitor) {
+            waiting++;
+            try {
+                while (!tryAcquire()) {
+                    if (timeout < 0) {
+                        monitor.wait();
+                    } else {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) return false;
+                        TimeUnit.NANOSECONDS.timedWait(monitor, left);
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    /**
+     * Release permit of a request, that got a reply.
+     *
+     * @param rttNanos  from sending the request to its reply
+     */
+    void replied(long rttNanos) {
+        if (adaptiveLimit != null) adaptiveLimit.onSample(rttNanos, inFlight.get());
+        release();
+    }
+
+    /**
+     * Release permit of a request, that timed out.
+     */
+    void timedOut() {
+        if (adaptiveLimit != null) adaptiveLimit.onDrop();
+        release();
+    }
+
+    /**
+     * Release permit of a settled request and send queued requests.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+        if (waiting > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Queue send, that is run with an acquired permit.
+     *
+     * @return false if the queue is full
+     */
+    boolean offer(Runnable send) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return false;
+        }
+        queue.add(send);
+        drain(); // all permits might have been released in the meantime
+        return true;
+    }
+
+    /**
+     * Run queued sends while permits are available. Not reentrant, a nested call
+     * returns at once and leaves the work to the running one.
+     */
+    private void drain() {
+        while (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                while (!queue.isEmpty() && tryAcquire()) {
+                    Runnable send = queue.poll();
+                    if (send == null) {
+                        inFlight.decrementAndGet();
+                        break;
+                    }
+                    queued.decrementAndGet();
+                    send.run();
+                }
+            } finally {
+                draining.set(false);
+            }
+            if (inFlight.get() >= getLimit()) return;
+        }
+    }
+
+    void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    // METRICS //
+
+    /**
+     * @return requests that were rejected without being sent
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return requests waiting in the client side queue
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return requests in flight, that hold a permit
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return current bound of requests in flight
+     */
+    public int getLimit() {
+        return adaptiveLimit == null ? capacity : adaptiveLimit.getLimit();
+    }
+
+    @Override
+    public String toString() {
+        return "Backpressure{" +
+                "overflow=" + overflow +
+                ", maxInFlight=" + maxInFlight +
+                ", limit=" + getLimit() +
+                ", inFlight=" + getInFlight() +
+                ", queued=" + queued +
+                ", rejected=" + rejected +
+                '}';
+    }
+}
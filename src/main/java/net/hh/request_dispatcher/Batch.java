@@ -0,0 +1,37 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several requests or replies sent in a single message.
+ *
+ * Passed through the send path like a single request. TransferHelper transmits
+ * the items as one serialized ArrayList and sets TransferHeader.FLAG_BATCH.
+ * The Batch object itself is never serialized.
+ *
+ * Replies hold the reply or RequestException of each request, in request order.
+ */
+final class Batch implements Serializable {
+
+    private final ArrayList<Serializable> items;
+
+    Batch(List<? extends Serializable> items) {
+        this.items = new ArrayList<Serializable>(items);
+    }
+
+    /**
+     * @return items as transmitted
+     */
+    ArrayList<Serializable> getItems() {
+        return items;
+    }
+
+    /**
+     * @return type of the first item. Batched requests are all sent to the same service.
+     */
+    Class<?> getItemType() {
+        return items.isEmpty() ? Batch.class : items.get(0).getClass();
+    }
+}
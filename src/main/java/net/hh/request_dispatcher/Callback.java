@@ -3,6 +3,8 @@ package net.hh.request_dispatcher;
 import org.apache.log4j.Logger;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Callback class that is used as an interface for the ZMQ callbacks which are 
@@ -41,4 +43,97 @@ public abstract class Callback<ReplyType extends Serializable> {
         log.error("Called onError()", e);
     }
 
+    // PROMISE SUPPORT //
+    //
+    // The dispatcher calls success(), error() and timeout() instead of the
+    // on...() methods. These notify the promises, that depend on this callback.
+    // A callback settles on its first invocation. Promises registered afterwards
+    // are notified immediately, until the callback is dispatched with another request.
+
+    enum State { PENDING, SUCCESS, ERROR, TIMEOUT }
+
+    // guarded by this
+    private State state = State.PENDING;
+    private RequestException error;
+    private List<Promise> dependents;
+
+    final void success(ReplyType reply) {
+        success(reply, -1);
+    }
+
+    /**
+     * @param frameBytes    size of the request and reply frames. -1 if unknown.
+     */
+    final void success(ReplyType reply, int frameBytes) {
+        onSuccess(reply, frameBytes);
+        settle(State.SUCCESS, null);
+    }
+
+    final void error(RequestException e) {
+        onError(e);
+        settle(State.ERROR, e);
+    }
+
+    final void timeout() {
+        onTimeout();
+        settle(State.TIMEOUT, null);
+    }
+
+    /**
+     * Called when the callback is dispatched with a request. A reused callback is pending
+     * again, so promises registered afterwards wait for the outcome of the new request.
+     */
+    final void dispatched() {
+        synchronized (this) {
+            state = State.PENDING;
+            error = null;
+        }
+    }
+
+    /**
+     * Called by the adapter, when the callback is removed without being executed.
+     * Wrappers that hold resources for a request release them here.
+     */
+    void cancelled() {}
+
+    /**
+     * onSuccess() with the size of the request and reply frames, as received by the adapter.
+     * Wrappers pass it on with the reply, so the ReplyCache charges replies without
+     * serializing them again.
+     */
+    void onSuccess(ReplyType reply, int frameBytes) {
+        onSuccess(reply);
+    }
+
+    /**
+     * Register promise to be notified when this callback settles.
+     * Notifies the promise directly, if the callback has settled already.
+     */
+    final void addDependent(Promise promise) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                if (dependents == null) dependents = new ArrayList<Promise>(1);
+                dependents.add(promise);
+                return;
+            }
+        }
+        promise.dependencySettled(state, error);
+    }
+
+    private void settle(State state, RequestException error) {
+        List<Promise> toNotify;
+        synchronized (this) {
+            if (this.state != State.PENDING) return;
+            this.state = state;
+            this.error = error;
+            toNotify = dependents;
+            dependents = null;
+        }
+
+        if (toNotify == null) return;
+        for (Promise promise : toNotify) {
+            promise.dependencySettled(state, error);
+        }
+    }
+
 }
@@ -0,0 +1,204 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pending callbacks of an adapter, indexed by callbackId.
+ *
+ * A callbackId consists of a slot index in the lower SLOT_BITS and the generation
+ * of the slot in the upper bits. The generation is incremented whenever a slot is
+ * freed, so a late or duplicated reply carrying an old id does not match the
+ * callback that reuses the slot. Ids are always >= 0.
+ *
+ * Generations wrap after GENERATIONS reuses of a slot. Free slots are reused in FIFO
+ * order, so reuse is spread over all slots of the table: an id repeats only after
+ * GENERATIONS * INITIAL_CAPACITY (~33M) settled callbacks. A reply arriving later
+ * than that could be matched to the wrong callback.
+ *
+ * Each callback carries a timestamp, e.g. the time its request was sent, and a size,
+ * e.g. of its serialized request.
+ *
+ * Free slots form a queue linked in nextFree. put() and remove() do not allocate,
+ * unless the table has to grow.
+ *
+ * Not thread safe.
+ */
+class CallbackTable<T extends Serializable> {
+
+    static final int SLOT_BITS = 16;
+    static final int MAX_SLOTS = 1 << SLOT_BITS;    // max number of pending callbacks
+    static final int GENERATIONS = 1 << (31 - SLOT_BITS);
+    private static final int SLOT_MASK = MAX_SLOTS - 1;
+    private static final int GENERATION_MASK = GENERATIONS - 1;
+
+    static final int INITIAL_CAPACITY = 1024;
+
+    private Object[] callbacks = new Object[INITIAL_CAPACITY];
+    private int[] generations = new int[INITIAL_CAPACITY];
+    private int[] nextFree = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+
+    private int freeHead;       // next slot to use. -1 if none is free
+    private int freeTail;       // last freed slot. -1 if none is free
+    private int size = 0;
+
+    public CallbackTable() {
+        linkFreeSlots(0, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return callbackId of the registered callback
+     * @throws IllegalStateException if MAX_SLOTS callbacks are pending
+     */
+    public int put(Callback<T> callback) {
+        return put(callback, 0);
+    }
+
+    /**
+     * @return callbackId of the registered callback
+     * @throws IllegalStateException if MAX_SLOTS callbacks are pending
+     */
+    public int put(Callback<T> callback, long timestamp) {
+        if (freeHead == -1) grow();
+
+        int slot = freeHead;
+        freeHead = nextFree[slot];
+        if (freeHead == -1) freeTail = -1;
+        callbacks[slot] = callback;
+        timestamps[slot] = timestamp;
+        sizes[slot] = -1;
+        size++;
+
+        return (generations[slot] << SLOT_BITS) | slot;
+    }
+
+    /**
+     * @return callback registered under callbackId. null if no such callback is pending.
+     */
+    public Callback<T> remove(int callbackId) {
+        int slot = slotOf(callbackId);
+        if (slot == -1) return null;
+
+        @SuppressWarnings("unchecked")
+        Callback<T> callback = (Callback<T>) callbacks[slot];
+        free(slot);
+        return callback;
+    }
+
+    /**
+     * @return timestamp of the callback registered under callbackId. -1 if no such callback is pending.
+     */
+    public long timestampOf(int callbackId) {
+        int slot = slotOf(callbackId);
+        return slot == -1 ? -1 : timestamps[slot];
+    }
+
+    /**
+     * @param size  of the callback registered under callbackId. Ignored if no such callback is pending.
+     */
+    public void setSize(int callbackId, int size) {
+        int slot = slotOf(callbackId);
+        if (slot != -1) sizes[slot] = size;
+    }
+
+    /**
+     * @return size set for the callback registered under callbackId. -1 if none was set
+     *         or no such callback is pending.
+     */
+    public int sizeOf(int callbackId) {
+        int slot = slotOf(callbackId);
+        return slot == -1 ? -1 : sizes[slot];
+    }
+
+    /**
+     * @return slot of the pending callback. -1 if none.
+     */
+    private int slotOf(int callbackId) {
+        if (callbackId < 0) return -1;
+
+        int slot = callbackId & SLOT_MASK;
+        if (slot >= callbacks.length || callbacks[slot] == null) return -1;
+        if (generations[slot] != callbackId >>> SLOT_BITS) return -1;
+        return slot;
+    }
+
+    /**
+     * Remove all pending callbacks.
+     *
+     * @return removed callbacks in slot order
+     */
+    public List<Callback<T>> removeAll() {
+        List<Callback<T>> removed = new ArrayList<Callback<T>>(size);
+        for (int slot = 0; slot < callbacks.length && size > 0; slot++) {
+            if (callbacks[slot] != null) {
+                @SuppressWarnings("unchecked")
+                Callback<T> callback = (Callback<T>) callbacks[slot];
+                removed.add(callback);
+                free(slot);
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if MAX_SLOTS callbacks are pending. put() would fail.
+     */
+    public boolean isFull() {
+        return size == MAX_SLOTS;
+    }
+
+    private void free(int slot) {
+        callbacks[slot] = null;
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+
+        // append, the slot is reused after all other free slots
+        nextFree[slot] = -1;
+        if (freeTail == -1) {
+            freeHead = slot;
+        } else {
+            nextFree[freeTail] = slot;
+        }
+        freeTail = slot;
+        size--;
+    }
+
+    private void grow() {
+        int oldCapacity = callbacks.length;
+        if (oldCapacity >= MAX_SLOTS) {
+            throw new IllegalStateException("More than " + MAX_SLOTS + " pending callbacks.");
+        }
+
+        int newCapacity = Math.min(oldCapacity * 2, MAX_SLOTS);
+        callbacks = Arrays.copyOf(callbacks, newCapacity);
+        generations = Arrays.copyOf(generations, newCapacity);
+        nextFree = Arrays.copyOf(nextFree, newCapacity);
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+
+        linkFreeSlots(oldCapacity, newCapacity);
+    }
+
+    /**
+     * Called with an empty free list.
+     */
+    private void linkFreeSlots(int from, int to) {
+        for (int slot = from; slot < to - 1; slot++) {
+            nextFree[slot] = slot + 1;
+        }
+        nextFree[to - 1] = -1;
+        freeHead = from;
+        freeTail = to - 1;
+    }
+}
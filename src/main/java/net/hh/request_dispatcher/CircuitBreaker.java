@@ -0,0 +1,224 @@
+package net.hh.request_dispatcher;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker of a service. See Dispatcher.setCircuitBreaker().
+ *
+ * CLOSED:    requests are sent. Errors and timeouts of the latest window requests are counted.
+ *            The breaker opens, when at least minRequests settled and failureRatePercent of them failed.
+ * OPEN:      requests fail at once with a RequestException, without being sent.
+ *            After openTime ms the breaker turns half open.
+ * HALF_OPEN: a single probe request is sent, all others fail at once. The breaker closes
+ *            if the probe succeeds and opens again if it fails. Outcomes of requests sent
+ *            before are only counted in the metrics.
+ *
+ * Listeners are called on the thread that settled the request, with the breaker locked.
+ * They must not block. Thread safe. Must not be shared between services.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = Logger.getLogger(CircuitBreaker.class);
+
+    public static enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Result of tryAcquire(). The outcome of a PROBE decides the state of a half open breaker.
+     */
+    static enum Admission { REJECTED, ADMITTED, PROBE }
+
+    /**
+     * Notified on state changes.
+     */
+    public interface Listener {
+        void onStateChange(CircuitBreaker breaker, State from, State to);
+    }
+
+    private final int failureRatePercent;
+    private final int minRequests;
+    private final long openNanos;
+
+    // guarded by this
+    private final boolean[] outcomes;   // ring buffer, true for failures
+    private int outcomeCount = 0;
+    private int failureCount = 0;
+    private int next = 0;
+    private State state = State.CLOSED;
+    private long openedAt;              // System.nanoTime()
+    private boolean probeInFlight = false;
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    /**
+     * @param failureRatePercent    of errors and timeouts in (0, 100], that opens the breaker
+     * @param window                latest settled requests the rate is computed on
+     * @param minRequests           settled requests in the window required to open
+     * @param openTime              in ms, before a probe request is sent
+     */
+    public CircuitBreaker(int failureRatePercent, int window, int minRequests, int openTime) {
+        if (failureRatePercent <= 0 || failureRatePercent > 100) {
+            throw new IllegalArgumentException("Failure rate " + failureRatePercent);
+        }
+        if (window <= 0) throw new IllegalArgumentException("Window " + window);
+        if (minRequests <= 0 || minRequests > window) throw new IllegalArgumentException("Min requests " + minRequests);
+        if (openTime < 0) throw new IllegalArgumentException("Open time " + openTime);
+
+        this.failureRatePercent = failureRatePercent;
+        this.outcomes = new boolean[window];
+        this.minRequests = minRequests;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openTime);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // REQUESTS //
+
+    /**
+     * @return whether the request may be sent. REJECTED requests are counted as rejected.
+     */
+    synchronized Admission tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            transition(State.HALF_OPEN);
+        }
+
+        if (state == State.CLOSED) return Admission.ADMITTED;
+
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return Admission.PROBE;
+        }
+
+        rejected.incrementAndGet();
+        return Admission.REJECTED;
+    }
+
+    /**
+     * @param probe     true if the request was admitted as PROBE
+     */
+    synchronized void onSuccess(boolean probe) {
+        successes.incrementAndGet();
+
+        if (state == State.HALF_OPEN) {
+            if (probe) transition(State.CLOSED);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Called for errors and timeouts.
+     *
+     * @param probe     true if the request was admitted as PROBE
+     */
+    synchronized void onFailure(boolean probe) {
+        failures.incrementAndGet();
+
+        if (state == State.HALF_OPEN) {
+            if (probe) transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (outcomeCount >= minRequests && failureCount * 100 >= failureRatePercent * outcomeCount) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * Called for requests, that were cancelled without outcome.
+     *
+     * @param probe     true if the request was admitted as PROBE
+     */
+    synchronized void onCancel(boolean probe) {
+        if (probe && state == State.HALF_OPEN) probeInFlight = false;
+    }
+
+    private void record(boolean failure) {
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[next]) failureCount--;
+        } else {
+            outcomeCount++;
+        }
+
+        outcomes[next] = failure;
+        if (failure) failureCount++;
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        probeInFlight = false;
+
+        if (to == State.OPEN) {
+            openedAt = System.nanoTime();
+            timesOpened.incrementAndGet();
+        } else if (to == State.CLOSED) {
+            outcomeCount = 0;
+            failureCount = 0;
+            next = 0;
+        }
+
+        log.info("Circuit breaker " + from + " -> " + to);
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(this, from, to);
+            } catch (RuntimeException e) {
+                log.error("Circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    // METRICS //
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    /**
+     * @return errors and timeouts
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return requests that failed at once, since the breaker was not closed
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getTimesOpened() {
+        return timesOpened.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" +
+                "state=" + getState() +
+                ", successes=" + successes +
+                ", failures=" + failures +
+                ", rejected=" + rejected +
+                ", timesOpened=" + timesOpened +
+                '}';
+    }
+}
@@ -0,0 +1,47 @@
+package net.hh.request_dispatcher;
+
+/**
+ * Encodings for request and reply payloads.
+ *
+ * The codec is selected per service by the client (Dispatcher.registerService())
+ * and transmitted in the message header. Workers decode requests accordingly and
+ * reply in the same codec, unless configured otherwise.
+ */
+public enum Codec {
+
+    JAVA(0, new SerializerImplBinary()),  // java object serialization
+    XML(1, new SerializerImplXml());      // XStream
+
+    private static final Codec[] byId = new Codec[256];
+    static {
+        for (Codec codec : values()) {
+            byId[codec.id] = codec;
+        }
+    }
+
+    private final int id;
+    private final Serializer serializer;
+
+    Codec(int id, Serializer serializer) {
+        this.id = id;
+        this.serializer = serializer;
+    }
+
+    /**
+     * @return id transmitted in the message header
+     */
+    public int getId() {
+        return id;
+    }
+
+    Serializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * @return codec with the given id. null if unknown.
+     */
+    static Codec byId(int id) {
+        return id >= 0 && id < byId.length ? byId[id] : null;
+    }
+}
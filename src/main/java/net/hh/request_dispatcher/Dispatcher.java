@@ -3,14 +3,31 @@ package net.hh.request_dispatcher;
 import org.apache.log4j.Logger;
 import org.zeromq.ZMQ;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.util.*;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Dispatches Requests to external services over ZMQ.
  * - match request object to the correct service by type comparison
  *
+ * A Dispatcher runs in one of two threading modes (see Mode):
+ * - CALLER_THREAD: sockets are driven by the thread calling gatherResults().
+ *                  The dispatcher must not be shared between threads.
+ * - REACTOR:       sockets are owned by a single background thread.
+ *                  The dispatcher can be shared by all threads of a servlet container.
+ *                  Callbacks are still executed by the thread that issued the request,
+ *                  when it calls gatherResults().
+ *
+ * Metrics of each endpoint are registered as MBeans named
+ * net.hh.request_dispatcher:type=Endpoint,dispatcher=<n>,service=<request class>,endpoint=<endpoint>
+ *
  * Created by hartmann on 4/10/14.
  */
 public class Dispatcher {
@@ -19,48 +36,466 @@ public class Dispatcher {
 
     private final ZMQ.Context ctx;
     private final boolean isContextOwner;
-    private final Map<Class, ZmqAdapterAsync> asyncAdapters = new HashMap<Class, ZmqAdapterAsync>();
-    private final Map<Class, ZmqAdapterSync> syncAdapters = new HashMap<Class, ZmqAdapterSync>();
+    private final Map<Class, ServiceEndpoints> services = new ConcurrentHashMap<Class, ServiceEndpoints>();
 
     private final ZMQ.Poller poller = new ZMQ.Poller(0);
+    private final List<ZmqAdapterAsync> polledAdapters = new ArrayList<ZmqAdapterAsync>(); // by poller index
+    private final TimerWheel deadlines = new TimerWheel();  // CALLER_THREAD mode
+
+    private final Mode mode;
+    private final DispatcherReactor reactor;    // null in CALLER_THREAD mode
+
+    private static final AtomicInteger instances = new AtomicInteger();
+    private final int instance = instances.incrementAndGet();   // distinguishes MBeans of several dispatchers
+    private final List<ObjectName> mbeans = new CopyOnWriteArrayList<ObjectName>();
+
+    /**
+     * Threading modes.
+     */
+    public static enum Mode {
+        CALLER_THREAD,  // sockets are polled in gatherResults(). Not thread safe.
+        REACTOR         // sockets are owned by a background thread. Thread safe.
+    }
 
     // CONSTRUCTORS //
     public Dispatcher(ZMQ.Context ctx) {
-        this.ctx = ctx;
-        isContextOwner = false;
+        this(ctx, false, Mode.CALLER_THREAD);
     }
 
     public Dispatcher() {
-        this.ctx = ZMQ.context(1);
-        this.isContextOwner = true;
+        this(ZMQ.context(1), true, Mode.CALLER_THREAD);
+    }
+
+    /**
+     * @param ctx   context to create sockets in. Not terminated on shutdown().
+     * @param mode  threading mode
+     */
+    public Dispatcher(ZMQ.Context ctx, Mode mode) {
+        this(ctx, false, mode);
+    }
+
+    /**
+     * Creates dispatcher with own context.
+     *
+     * @param mode  threading mode
+     */
+    public Dispatcher(Mode mode) {
+        this(ZMQ.context(1), true, mode);
+    }
+
+    private Dispatcher(ZMQ.Context ctx, boolean isContextOwner, Mode mode) {
+        this.ctx = ctx;
+        this.isContextOwner = isContextOwner;
+        this.mode = mode;
+
+        if (mode == Mode.REACTOR) {
+            reactor = new DispatcherReactor();
+            reactor.start();
+        } else {
+            reactor = null;
+        }
     }
 
     // SERVICE MANAGEMENT //
 
     public void registerService(final Class requestClass, final String endpoint) {
-        log.debug("Registering ServiceAcapter for class " + requestClass);
+        registerService(requestClass, endpoint, -1);
+    }
+
+    public void registerService(final Class requestClass, final String endpoint, final int defaultTimeout) {
+        registerService(requestClass, endpoint, defaultTimeout, Codec.JAVA);
+    }
+
+    public void registerService(final Class requestClass, final String endpoint, final Codec codec) {
+        registerService(requestClass, endpoint, -1, codec);
+    }
+
+    /**
+     * @param requestClass      requests of this class and its subclasses are sent to endpoint.
+     * @param endpoint          of the service
+     * @param defaultTimeout    in ms. Deadline for requests executed without explicit timeout.
+     *                          -1 for no deadline.
+     * @param codec             requests are encoded with.
+     */
+    public void registerService(final Class requestClass, final String endpoint, final int defaultTimeout,
+                                final Codec codec) {
+        registerService(requestClass, Collections.singletonList(endpoint), defaultTimeout, codec);
+    }
+
+    /**
+     * Register a horizontally scaled service. Each request is sent to the endpoint with
+     * the fewest requests in flight. Endpoints are ejected for a while after consecutive
+     * errors or timeouts (see ServiceEndpoints).
+     *
+     * @param requestClass      requests of this class and its subclasses are sent to the endpoints.
+     * @param endpoints         of the service instances
+     */
+    public void registerService(final Class requestClass, final List<String> endpoints) {
+        registerService(requestClass, endpoints, -1, Codec.JAVA);
+    }
+
+    /**
+     * @param requestClass      requests of this class and its subclasses are sent to the endpoints.
+     * @param endpoints         of the service instances
+     * @param defaultTimeout    in ms. Deadline for requests executed without explicit timeout.
+     *                          -1 for no deadline.
+     * @param codec             requests are encoded with.
+     */
+    public void registerService(final Class requestClass, final List<String> endpoints, final int defaultTimeout,
+                                final Codec codec) {
+        registerService(requestClass, endpoints, defaultTimeout, codec, null);
+    }
+
+    /**
+     * @param requestClass      requests of this class and its subclasses are sent to the endpoints.
+     * @param endpoints         of the service instances
+     * @param defaultTimeout    in ms. Deadline for requests executed without explicit timeout.
+     *                          -1 for no deadline.
+     * @param codec             requests are encoded with.
+     * @param backpressure      bounds the requests in flight. null for no bound.
+     */
+    public void registerService(final Class requestClass, final List<String> endpoints, final int defaultTimeout,
+                                final Codec codec, final Backpressure backpressure) {
+        log.debug("Registering ServiceAcapter for class " + requestClass + " at " + endpoints);
+
+        int highWaterMark = Backpressure.DEFAULT_HIGH_WATER_MARK;
+        if (backpressure != null) {
+            backpressure.attach(endpoints.size());
+            highWaterMark = backpressure.getHighWaterMark();
+        }
+
+        List<ZmqAdapterAsync> adapters = new ArrayList<ZmqAdapterAsync>(endpoints.size());
+        for (String endpoint : endpoints) {
+            ZmqAdapterAsync zmqAdapterAsync = new ZmqAdapterAsync(ctx, endpoint, highWaterMark);
+            zmqAdapterAsync.setDefaultTimeout(defaultTimeout);
+            zmqAdapterAsync.setCodec(codec);
+
+            // Synchronous requests are multiplexed over the async socket in both modes.
+            if (mode == Mode.REACTOR) {
+                // Hand over before publishing, so commands for this adapter are queued after registration.
+                reactor.register(zmqAdapterAsync);
+            } else {
+                int index = poller.register(zmqAdapterAsync.getPollItem());
+                polledAdapters.add(index, zmqAdapterAsync);
+                zmqAdapterAsync.setUnsentErrors(readyPromises);
+            }
+            adapters.add(zmqAdapterAsync);
+            registerMBean(requestClass, zmqAdapterAsync);
+        }
+
+        ServiceEndpoints service = new ServiceEndpoints(adapters);
+        service.setBackpressure(backpressure);
+        services.put(requestClass, service);
+    }
+
+    /**
+     * Selects the transfer protocol used for requests to a registered service.
+     * Workers always reply in the version of the request.
+     *
+     * @param requestClass      as passed to registerService()
+     * @param version           2 (default) or 1 for services built on releases without the v2 header.
+     *                          Version 1 only supports Codec.JAVA.
+     */
+    public void setProtocolVersion(final Class requestClass, final int version) {
+        if (version != TransferHeader.VERSION_1 && version != TransferHeader.VERSION_2) {
+            throw new IllegalArgumentException("Unknown protocol version " + version);
+        }
+
+        ServiceEndpoints service = getService(requestClass);
+        if (version == TransferHeader.VERSION_1 && service.getCodec() != Codec.JAVA) {
+            throw new IllegalStateException("Protocol version 1 does not support codec " + service.getCodec());
+        }
+
+        service.setProtocolVersion(version);
+    }
+
+    /**
+     * Hedge asynchronous requests to a registered service: if no reply arrived within a percentile
+     * of the observed latency, the request is sent again and the first reply wins.
+     * Synchronous and one way requests are never hedged.
+     *
+     * @param requestClass      as passed to registerService()
+     * @param policy            not shared with other services. null disables hedging.
+     */
+    public void setHedgePolicy(final Class requestClass, final HedgePolicy policy) {
+        getService(requestClass).setHedgePolicy(policy);
+    }
+
+    /**
+     * Serve replies to requests of a registered service from a client side cache.
+     * Cache hits of execute() are delivered on the next gatherResults() without sending the request.
+     * executeSync() and executeAsync() return cache hits directly.
+     *
+     * @param requestClass      as passed to registerService()
+     * @param cache             not shared with other services. null disables caching.
+     */
+    public void setReplyCache(final Class requestClass, final ReplyCache cache) {
+        getService(requestClass).setReplyCache(cache);
+    }
+
+    /**
+     * Coalesce equal asynchronous requests to a registered service while one of them is in flight.
+     * Only the first one is sent. All callbacks receive its reply or error. Each callback times out
+     * after its own timeout, at the latest with the request in flight. Coalesced requests take no
+     * backpressure permit and are not counted by the circuit breaker.
+     *
+     * @param requestClass      as passed to registerService()
+     * @param enabled           requests are compared by equals() and hashCode()
+     */
+    public void setCoalescing(final Class requestClass, final boolean enabled) {
+        setCoalescing(requestClass, enabled ? KeyExtractor.EQUAL_REQUESTS : null);
+    }
 
-        syncAdapters.put(requestClass, new ZmqAdapterSync(ctx, endpoint));
+    /**
+     * @param requestClass      as passed to registerService()
+     * @param keyExtractor      requests with equal keys are coalesced. null disables coalescing.
+     */
+    public void setCoalescing(final Class requestClass, final KeyExtractor keyExtractor) {
+        getService(requestClass).setInFlightRequests(keyExtractor == null ? null : new InFlightRequests(keyExtractor));
+    }
 
-        ZmqAdapterAsync zmqAdapterAsync = new ZmqAdapterAsync(ctx, endpoint);
-        asyncAdapters.put(requestClass, zmqAdapterAsync);
-        poller.register(zmqAdapterAsync.getPollItem());
+    /**
+     * Trace a sample of the requests to a registered service through client, worker and
+     * reply path. See RequestTrace for the stages.
+     *
+     * Traced requests carry a longer header. All workers of the service must support tracing,
+     * older ones drop traced requests as protocol violation.
+     *
+     * @param requestClass      as passed to registerService()
+     * @param tracing           null disables tracing.
+     */
+    public void setTracing(final Class requestClass, final Tracing tracing) {
+        getService(requestClass).setTracing(tracing);
+    }
 
+    /**
+     * Fail requests to a registered service at once, while it keeps failing. See CircuitBreaker.
+     * Errors, timeouts and rejections by the backpressure of the service count as failures.
+     * Failed execute() callbacks are executed on the next gatherResults(). One way requests are not affected.
+     *
+     * @param requestClass      as passed to registerService()
+     * @param breaker           not shared with other services. null disables the breaker.
+     */
+    public void setCircuitBreaker(final Class requestClass, final CircuitBreaker breaker) {
+        getService(requestClass).setCircuitBreaker(breaker);
     }
 
     // REQUEST EXECUTION //
 
     /**
+     * Times out after the default timeout of the service.
+     *
      * @param request   sent to the registered service.
      * @param callback  that handles the response. Executed on gatherResults()
      */
     public void execute(final Serializable request, final Callback callback) {
+        ServiceEndpoints service = getService(request.getClass());
+        execute(service, request, callback, service.getDefaultTimeout());
+    }
+
+    /**
+     * @param request   sent to the registered service.
+     * @param callback  that handles the response. Executed on gatherResults()
+     * @param timeout   in ms. onTimeout() is called, if no reply arrived until then.
+     *                  -1 for no deadline.
+     */
+    public void execute(final Serializable request, final Callback callback, final int timeout) {
+        execute(getService(request.getClass()), request, callback, timeout);
+    }
+
+    private void execute(final ServiceEndpoints service, final Serializable request, Callback callback,
+                         final int timeout) {
         log.debug("Dispatching async request of type " + request.getClass());
+        if (callback != null) callback.dispatched();
+
+        ReplyCache cache = service.getReplyCache();
+        if (cache != null && callback != null && !(request instanceof Batch)) {
+            Serializable cached = cache.get(request);
+            if (cached != null) {
+                deliverCached(callback, cached);
+                return;
+            }
+        }
+
+        boolean routed = false;
+        InFlightRequests inFlight = service.getInFlightRequests();
+        if (inFlight != null && callback != null && !(request instanceof Batch)) {
+            // Each caller is routed on its own. Shared requests are not bound to a RoutedCallback,
+            // since one caller timing out must not cancel the request for the others.
+            if (mode == Mode.REACTOR) {
+                callback = new RoutedCallback(callback, getInbox());
+                routed = true;
+            }
+            callback = join(inFlight, request, callback, timeout);
+            if (callback == null) return; // attached to an equal request in flight
+        }
+
+        if (cache != null && callback != null && !(request instanceof Batch)) {
+            callback = new CachingCallback(cache, request, callback);
+        }
+
+        CircuitBreaker breaker = service.getCircuitBreaker();
+        if (breaker != null && callback != null) {
+            CircuitBreaker.Admission admission = breaker.tryAcquire();
+            if (admission == CircuitBreaker.Admission.REJECTED) {
+                if (routed) {
+                    callback.error(breakerOpen(request)); // routed to the calling threads
+                } else {
+                    deliverError(callback, breakerOpen(request));
+                }
+                return;
+            }
+            callback = new BreakerCallback(breaker, admission, callback);
+        }
+
+        if (mode == Mode.REACTOR && callback != null && !routed) {
+            admitAndSend(service, request, new RoutedCallback(callback, getInbox()), timeout);
+        } else {
+            admitAndSend(service, request, callback, timeout);
+        }
+    }
+
+    /**
+     * Asynchronous request execution returning a future.
+     *
+     * In REACTOR mode the future is completed on the reactor thread, as soon as the reply
+     * arrives. Expensive continuations should use the ...Async() methods of CompletableFuture.
+     * In CALLER_THREAD mode the future is completed in gatherResults().
+     *
+     * The future is completed exceptionally with
+     * - RequestException if thrown by the request handler.
+     * - TimeoutException on timeout.
+     *
+     * @param request   sent to the registered service.
+     * @param timeout   in ms. -1 for no timeout.
+     * @return future   of the reply.
+     *
+     * @throws java.lang.IllegalStateException if no service is registered for request class.
+     */
+    public <T extends Serializable> CompletableFuture<T> executeAsync(final Serializable request, final int timeout) {
+        return executeAsync(getService(request.getClass()), request, timeout);
+    }
+
+    /**
+     * Like executeAsync(request, timeout) with the default timeout of the service.
+     */
+    public <T extends Serializable> CompletableFuture<T> executeAsync(final Serializable request) {
+        ServiceEndpoints service = getService(request.getClass());
+        return executeAsync(service, request, service.getDefaultTimeout());
+    }
+
+    private <T extends Serializable> CompletableFuture<T> executeAsync(final ServiceEndpoints service,
+                                                                       final Serializable request,
+                                                                       final int timeout) {
+        log.debug("Dispatching future request of type " + request.getClass());
+
+        ReplyCache cache = service.getReplyCache();
+        Serializable cached = cache == null ? null : cache.get(request);
+        if (cached != null) {
+            return CompletableFuture.completedFuture((T) cached);
+        }
 
-        getAsyncAdapter(request.getClass()).execute(request, callback);
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        Callback callback = new FutureCallback<T>(future);
+
+        InFlightRequests inFlight = service.getInFlightRequests();
+        if (inFlight != null && !(request instanceof Batch)) {
+            callback = join(inFlight, request, callback, timeout);
+            if (callback == null) return future; // attached to an equal request in flight
+        }
+
+        if (cache != null) callback = new CachingCallback(cache, request, callback);
+
+        CircuitBreaker breaker = service.getCircuitBreaker();
+        if (breaker != null) {
+            CircuitBreaker.Admission admission = breaker.tryAcquire();
+            if (admission == CircuitBreaker.Admission.REJECTED) {
+                callback.error(breakerOpen(request));
+                return future;
+            }
+            callback = new BreakerCallback(breaker, admission, callback);
+        }
+
+        admitAndSend(service, request, callback, timeout);
+        return future;
+    }
+
+    /**
+     * Like executeBatch(requests, callbacks, timeout) with the default timeout of the service.
+     */
+    public void executeBatch(final List<? extends Serializable> requests, final Callback... callbacks) {
+        executeBatch(requests, callbacks, getBatchService(requests).getDefaultTimeout());
+    }
+
+    /**
+     * Sends several requests to the same service in a single message.
+     * The worker processes them in order and replies in a single message.
+     *
+     * Each callback receives the reply or error of its own request.
+     * All callbacks time out together.
+     *
+     * @param requests  sent to the registered service. All requests must be routed to the same service.
+     * @param callbacks one per request, or a single callback for all requests. null for one way requests.
+     * @param timeout   in ms. -1 for no deadline.
+     *
+     * @throws java.lang.IllegalArgumentException if the requests are routed to different services.
+     */
+    public void executeBatch(final List<? extends Serializable> requests, final Callback[] callbacks,
+                             final int timeout) {
+        ServiceEndpoints service = getBatchService(requests);
+
+        final Callback[] itemCallbacks;
+        if (callbacks.length == requests.size()) {
+            itemCallbacks = callbacks;
+        } else if (callbacks.length == 1) {
+            itemCallbacks = new Callback[requests.size()];
+            Arrays.fill(itemCallbacks, callbacks[0]);
+        } else {
+            throw new IllegalArgumentException("Expected 1 or " + requests.size() + " callbacks. Got " + callbacks.length);
+        }
+        for (Callback c : itemCallbacks) {
+            if (c != null) c.dispatched();
+        }
+
+        if (service.getProtocolVersion() == TransferHeader.VERSION_1) {
+            // no batches in v1
+            for (int i = 0; i < requests.size(); i++) {
+                execute(service, requests.get(i), itemCallbacks[i], timeout);
+            }
+            return;
+        }
+
+        log.debug("Dispatching batch of " + requests.size() + " requests");
+
+        boolean oneWay = true;
+        for (Callback c : itemCallbacks) {
+            if (c != null) oneWay = false;
+        }
+
+        execute(service, new Batch(requests), oneWay ? null : new BatchCallback(itemCallbacks), timeout);
+    }
+
+    private ServiceEndpoints getBatchService(List<? extends Serializable> requests) {
+        if (requests.isEmpty()) throw new IllegalArgumentException("Empty batch.");
+
+        ServiceEndpoints service = getService(requests.get(0).getClass());
+        for (Serializable request : requests) {
+            if (getService(request.getClass()) != service) {
+                throw new IllegalArgumentException("Batched requests are routed to different services: " +
+                        requests.get(0).getClass() + ", " + request.getClass());
+            }
+        }
+        return service;
     }
 
     /**
+     * Blocks until the reply arrives. The request shares the socket of the service with
+     * asynchronous requests and is matched to its reply by callbackId. Replies to pending
+     * callbacks, that arrive in the meantime, are executed by the next gatherResults().
+     *
+     * In CALLER_THREAD mode only the dispatcher thread may call this method. Use REACTOR mode
+     * for concurrent synchronous requests from many threads.
+     *
      * @param request   sent to the registered service. Null on timeout.
      * @param timeout   in ms.
      * @return response
@@ -69,7 +504,60 @@ public class Dispatcher {
      */
     public Serializable executeSync(final Serializable request, int timeout) throws TimeoutException, RequestException {
         log.debug("Dispatching sync request of type " + request.getClass());
-        return getSyncAdapter(request.getClass()).sendSync(request, timeout);
+
+        ServiceEndpoints service = getService(request.getClass());
+        ReplyCache cache = service.getReplyCache();
+        Serializable reply = cache == null ? null : cache.get(request);
+        if (reply != null) return reply;
+
+        CircuitBreaker breaker = service.getCircuitBreaker();
+        CircuitBreaker.Admission admission = breaker == null ? null : breaker.tryAcquire();
+        if (admission == CircuitBreaker.Admission.REJECTED) throw breakerOpen(request);
+        boolean probe = admission == CircuitBreaker.Admission.PROBE;
+
+        Backpressure backpressure = service.getBackpressure();
+        if (backpressure != null) {
+            int wait = 0;
+            if (backpressure.getOverflow() == Backpressure.Overflow.BLOCK) wait = backpressure.getBlockTimeout();
+            if (backpressure.getOverflow() == Backpressure.Overflow.QUEUE) wait = timeout;
+
+            if (!awaitPermit(backpressure, wait)) {
+                backpressure.rejected();
+                if (breaker != null) breaker.onFailure(probe);
+                throw new RequestException("Too many requests in flight to service of " + request.getClass());
+            }
+        }
+
+        long sentAt = System.nanoTime();
+        boolean timedOut = false;
+        boolean failed = true;
+        int[] frameBytes = {-1};
+        try {
+            if (mode == Mode.REACTOR) {
+                reply = executeSyncOnReactor(service, request, timeout, frameBytes);
+            } else {
+                ZmqAdapterAsync.SyncCallback<Serializable> sync = new ZmqAdapterAsync.SyncCallback<Serializable>();
+                reply = service.select().sendSync(request, timeout, sync);
+                frameBytes[0] = sync.frameBytes;
+            }
+            failed = false;
+        } catch (TimeoutException e) {
+            timedOut = true;
+            throw e;
+        } finally {
+            if (backpressure != null) {
+                if (!failed) backpressure.replied(System.nanoTime() - sentAt);
+                else if (timedOut) backpressure.timedOut();
+                else backpressure.release();
+            }
+            if (breaker != null) {
+                if (failed) breaker.onFailure(probe);
+                else breaker.onSuccess(probe);
+            }
+        }
+
+        if (cache != null) cache.put(request, reply, frameBytes[0]);
+        return reply;
     }
 
     /**
@@ -104,6 +592,11 @@ public class Dispatcher {
     public void gatherResults(final int timeout) {
         log.debug("Gathering results with timeout " + timeout);
 
+        if (mode == Mode.REACTOR) {
+            gatherRoutedResults(timeout);
+            return;
+        }
+
         CountdownTimer timer = new CountdownTimer(timeout);
         timer.start();
 
@@ -111,14 +604,19 @@ public class Dispatcher {
         deliverPromises();
 
         while(havePendingCallbacks()) {
-            int messageCount = poller.poll(timer.timeLeft());
+            int messageCount = receiveReplies(pollTimeout(timer));
 
-            if (messageCount > 0) {
-                for (ZmqAdapterAsync zmqAdapterAsync : asyncAdapters.values()) {
-                    zmqAdapterAsync.recvAndExec(ZMQ.NOBLOCK); // non blocking recv
-                }
-            } else { // nc <= 0
-                if (timer.timeLeft() <= 0) {
+            int expiredCount = deadlines.expire();
+
+            if (messageCount <= 0) {
+                int timeLeft = timer.timeLeft();
+                if (timeLeft == 0) {
+                    log.debug("Timeout.");
+                    timeoutAll();
+                    break;
+                } else if (expiredCount > 0 || !deadlines.isEmpty()) {
+                    log.debug("Woke up for deadline.");
+                } else if (timeLeft == -1) {
                     log.debug("Timeout.");
                     timeoutAll();
                     break;
@@ -129,7 +627,6 @@ public class Dispatcher {
                 }
             }
 
-            clearDependenciesFromPromises();
             deliverPromises();
 
         } // while(havePendingCallbacks())
@@ -142,12 +639,14 @@ public class Dispatcher {
      * If context was constructed by the Dispatcher. The context is also terminated.
      */
     public void shutdown() {
-        for (ZmqAdapterAsync zmqAdapterAsync : asyncAdapters.values()) {
-            zmqAdapterAsync.close();
-        }
+        unregisterMBeans();
 
-        for (ZmqAdapterSync zmqAdapterSync : syncAdapters.values()) {
-            zmqAdapterSync.close();
+        if (reactor != null) {
+            reactor.shutdown(); // closes async sockets on the reactor thread
+        } else {
+            for (ZmqAdapterAsync zmqAdapterAsync : polledAdapters) {
+                zmqAdapterAsync.close();
+            }
         }
 
         if(isContextOwner) {
@@ -156,51 +655,218 @@ public class Dispatcher {
 
     }
 
+    // METRICS //
+
+    /**
+     * @param requestClass      as passed to registerService()
+     * @return metrics summed over all endpoints of the service
+     */
+    public MetricsSnapshot getMetrics(final Class requestClass) {
+        MetricsSnapshot sum = null;
+        for (ZmqAdapterAsync adapter : getService(requestClass).getAdapters()) {
+            MetricsSnapshot snapshot = adapter.getMetrics().snapshot();
+            sum = sum == null ? snapshot : sum.merge(snapshot);
+        }
+        return sum;
+    }
+
+    /**
+     * @return metrics of all registered services, by request class
+     */
+    public Map<Class, MetricsSnapshot> getMetrics() {
+        Map<Class, MetricsSnapshot> metrics = new HashMap<Class, MetricsSnapshot>();
+        for (Class requestClass : services.keySet()) {
+            metrics.put(requestClass, getMetrics(requestClass));
+        }
+        return metrics;
+    }
+
+    private void registerMBean(Class requestClass, ZmqAdapterAsync adapter) {
+        try {
+            ObjectName name = new ObjectName("net.hh.request_dispatcher:type=Endpoint" +
+                    ",dispatcher=" + instance +
+                    ",service=" + requestClass.getName() +
+                    ",endpoint=" + ObjectName.quote(adapter.getEndpoint()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(adapter.getMetrics(), name);
+            mbeans.add(name);
+        } catch (JMException e) {
+            log.warn("Cannot register metrics of " + adapter.getEndpoint(), e);
+        }
+    }
+
+    private void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : mbeans) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.warn("Cannot unregister " + name, e);
+            }
+        }
+        mbeans.clear();
+    }
+
     //// PRIVATE HELPER METHODS
 
     /**
      * @param requestClass
-     * @return asyncAdapter          registered adapter
+     * @return service               registered endpoints
      * @throws IllegalStateException if no adapter is found for the class.
      */
-    private ZmqAdapterAsync getAsyncAdapter(Class<? extends Serializable> requestClass) {
+    private ServiceEndpoints getService(Class<? extends Serializable> requestClass) {
         for(Class cur = requestClass; cur != null ; cur = cur.getSuperclass()) {
-            if (asyncAdapters.containsKey(cur)) {
-                return asyncAdapters.get(cur);
+            if (services.containsKey(cur)) {
+                return services.get(cur);
             }
         }
         throw new IllegalStateException("No adapter registered for class " + requestClass);
     }
 
     /**
-     * @param requestClass
-     * @return asyncAdapter          registered adapter
-     * @throws IllegalStateException if no adapter is found for the class.
+     * Wait for replies and execute their callbacks. CALLER_THREAD mode.
+     *
+     * @param pollTimeout   in ms.
+     * @return number of received replies
      */
-    private ZmqAdapterSync getSyncAdapter(Class<? extends Serializable> requestClass) {
-        for(Class cur = requestClass; cur != null ; cur = cur.getSuperclass()) {
-            if (syncAdapters.containsKey(cur)) {
-                return syncAdapters.get(cur);
+    private int receiveReplies(int pollTimeout) {
+        // replies received by executeSync() on the way
+        int deferredCount = drainDeferred();
+
+        int messageCount = poller.poll(deferredCount > 0 ? 0 : pollTimeout);
+
+        if (messageCount > 0) {
+            // only touch adapters that signaled readiness, and drain all their replies
+            for (int i = 0; i < polledAdapters.size(); i++) {
+                if (poller.pollin(i)) {
+                    polledAdapters.get(i).drain();
+                }
             }
         }
-        throw new IllegalStateException("No adapter registered for class " + requestClass);
+
+        return Math.max(messageCount, 0) + deferredCount;
+    }
+
+    /**
+     * Execute callbacks of replies, that were received by executeSync().
+     *
+     * @return number of executed replies
+     */
+    private int drainDeferred() {
+        int count = 0;
+        for (ZmqAdapterAsync adapter : polledAdapters) {
+            while (adapter.hasDeferredReplies()) {
+                adapter.recvAndExec(ZMQ.NOBLOCK);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Select endpoint and send request on the thread owning the adapters.
+     */
+    private void send(final ServiceEndpoints service, final Serializable request, final Callback callback,
+                      final int timeout) {
+        if (mode == Mode.REACTOR) {
+            reactor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    sendOnOwner(service, request, callback, timeout, reactor.getDeadlines());
+                }
+            });
+        } else {
+            sendOnOwner(service, request, callback, timeout, deadlines);
+        }
+    }
+
+    private static void sendOnOwner(ServiceEndpoints service, Serializable request, Callback callback,
+                                    int timeout, TimerWheel deadlines) {
+        HedgePolicy policy = service.getHedgePolicy();
+
+        Callback routed = callback instanceof PermitCallback ? ((PermitCallback) callback).callback : callback;
+
+        if (policy != null && callback != null) {
+            HedgedCallback hedged = new HedgedCallback(service, policy, request, callback, timeout, deadlines);
+            if (routed instanceof RoutedCallback) ((RoutedCallback) routed).bind(hedged);
+            hedged.start();
+        } else {
+            ZmqAdapterAsync adapter = service.select();
+            int callbackId = executeWithDeadline(adapter, request, callback, timeout, deadlines);
+            if (routed instanceof RoutedCallback) ((RoutedCallback) routed).bind(adapter, callbackId);
+        }
+    }
+
+    /**
+     * Attach callback to an equal request in flight. Attached callbacks keep their own timeout:
+     * on expiry the callback is detached and times out, the request in flight is not affected.
+     *
+     * @return callback to send the request with. null if attached to an equal request in flight.
+     */
+    private Callback join(final InFlightRequests inFlight, final Serializable request, final Callback callback,
+                          final int timeout) {
+        Callback shared = inFlight.join(request, callback);
+        if (shared != null || timeout < 0) return shared;
+
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                if (inFlight.detach(request, callback)) callback.timeout();
+            }
+        };
+        if (mode == Mode.REACTOR) {
+            reactor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    reactor.getDeadlines().schedule(timeout, expire);
+                }
+            });
+        } else {
+            deadlines.schedule(timeout, expire);
+        }
+        return null;
+    }
+
+    /**
+     * Send request and register deadline of the callback.
+     *
+     * @return callbackId
+     */
+    private static int executeWithDeadline(ZmqAdapterAsync adapter, Serializable request, Callback callback,
+                                           int timeout, TimerWheel deadlines) {
+        int callbackId = adapter.execute(request, callback, timeout);
+        if (callbackId != -1 && timeout >= 0) {
+            deadlines.add(timeout, adapter, callbackId);
+        }
+        return callbackId;
+    }
+
+    /**
+     * @return poll timeout in ms. Minimum of time left on timer and time to next deadline.
+     */
+    private int pollTimeout(CountdownTimer timer) {
+        int timeLeft = timer.timeLeft();
+        int deadlineLeft = deadlines.timeLeft();
+
+        if (timeLeft == -1) return deadlineLeft;
+        if (deadlineLeft == -1) return timeLeft;
+        return Math.min(timeLeft, deadlineLeft);
     }
 
     /**
      * @return true if one or more callbacks are pending.
      */
     private boolean havePendingCallbacks() {
-        for (ZmqAdapterAsync zmqAdapterAsync : asyncAdapters.values()) {
+        for (ZmqAdapterAsync zmqAdapterAsync : polledAdapters) {
             if (zmqAdapterAsync.hasPendingCallbacks()) return true;
         }
         return false;
     }
 
     /**
-     * Call timeout() methods of all asyncAdapters.
+     * Call timeout() methods of all adapters.
      */
     private void timeoutAll() {
-        for (ZmqAdapterAsync zmqAdapterAsync : asyncAdapters.values()) {
+        for (ZmqAdapterAsync zmqAdapterAsync : polledAdapters) {
             zmqAdapterAsync.timeout();
         }
     }
@@ -238,78 +904,817 @@ public class Dispatcher {
 
     ///////////// PROMISES /////////////////
 
-    Set<PromiseContainer<Callback>> openPromises = new HashSet<PromiseContainer<Callback>>();
+    private final Queue<Promise> readyPromises = new ArrayDeque<Promise>();  // CALLER_THREAD mode
 
-    public void promise(Runnable runnable, Callback... callbacks) {
-        openPromises.add(new PromiseContainer<Callback>(runnable, callbacks));
+    /**
+     * Execute runnable once all callbacks have settled.
+     * Promises without pending dependencies are kept on the next call to gatherResults().
+     *
+     * @param runnable      executed if all callbacks succeeded
+     * @param callbacks     dependencies. Can be other promises.
+     * @return promise      that can be used as dependency of other promises.
+     */
+    public Promise promise(Runnable runnable, Callback... callbacks) {
+        return promise(new Promise(runnable), callbacks);
     }
 
-    private void clearDependenciesFromPromises() {
-        for (ZmqAdapterAsync asyncAdapter : asyncAdapters.values()) {
-            for(PromiseContainer<Callback> promise : openPromises) {
-                promise.clearDependency(asyncAdapter.lastCallback);
-            }
+    /**
+     * Like promise(runnable, callbacks), for promises that override onError() or onTimeout().
+     */
+    public Promise promise(Promise promise, Callback... callbacks) {
+        if (promise.dependOn(callbacks)) {
+            getReadyPromises().add(promise);
         }
+        return promise;
     }
 
+    /**
+     * @return ready promises of the calling thread in REACTOR mode, otherwise readyPromises.
+     */
+    private Queue<Promise> getReadyPromises() {
+        return mode == Mode.REACTOR ? getInbox().readyPromises : readyPromises;
+    }
+
+    /**
+     * Keep promises whose dependencies settled before they were registered.
+     * All other promises are kept when their last dependency settles.
+     */
     private void deliverPromises() {
-        List<PromiseContainer> toRemove = new ArrayList<PromiseContainer>();
+        Queue<Promise> ready = getReadyPromises();
+        Promise promise;
+        while ((promise = ready.poll()) != null) {
+            promise.keep();
+        }
+    }
+
+
+    ///////////// BACKPRESSURE /////////////////
+
+    /**
+     * Send request, if the backpressure of the service admits it. Otherwise block, queue
+     * or reject it according to Backpressure.Overflow.
+     */
+    private void admitAndSend(final ServiceEndpoints service, final Serializable request, final Callback callback,
+                              final int timeout) {
+        final Backpressure backpressure = service.getBackpressure();
+        if (backpressure == null || callback == null) {
+            send(service, request, callback, timeout);
+            return;
+        }
+
+        final PermitCallback permit = new PermitCallback(backpressure, callback);
+
+        switch (backpressure.getOverflow()) {
+            case FAIL:
+                if (backpressure.tryAcquire()) {
+                    permit.sent();
+                    send(service, request, permit, timeout);
+                    return;
+                }
+                break;
+
+            case BLOCK:
+                if (awaitPermit(backpressure, backpressure.getBlockTimeout())) {
+                    permit.sent();
+                    send(service, request, permit, timeout);
+                    return;
+                }
+                break;
+
+            case QUEUE:
+                if (backpressure.tryAcquire()) {
+                    permit.sent();
+                    send(service, request, permit, timeout);
+                    return;
+                }
+
+                final long queuedAt = System.nanoTime();
+                boolean accepted = backpressure.offer(new Runnable() {
+                    @Override
+                    public void run() {
+                        int waited = (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt);
+                        if (timeout >= 0 && waited >= timeout) {
+                            permit.cancelled();
+                            permit.callback.timeout();
+                        } else {
+                            permit.sent();
+                            send(service, request, permit, timeout < 0 ? -1 : timeout - waited);
+                        }
+                    }
+                });
+                if (accepted) return;
+                break;
+        }
+
+        backpressure.rejected();
+        final RequestException e = new RequestException("Too many requests in flight to service of " + request.getClass());
+        if (mode == Mode.REACTOR) {
+            callback.error(e); // routed to the calling thread
+        } else {
+            deliverError(callback, e);
+        }
+    }
+
+    /**
+     * Wait for a permit of the backpressure.
+     *
+     * In CALLER_THREAD mode permits are released by the callbacks of this thread,
+     * so replies are received and their callbacks executed while waiting.
+     *
+     * @param timeout   in ms. -1 for infinite wait.
+     * @return false on timeout
+     */
+    private boolean awaitPermit(Backpressure backpressure, int timeout) {
+        if (backpressure.tryAcquire()) return true;
+        if (timeout == 0) return false;
+
+        if (mode == Mode.REACTOR) {
+            return backpressure.tryAcquire(timeout);
+        }
+
+        CountdownTimer timer = new CountdownTimer(timeout);
+        timer.start();
+
+        while (!backpressure.tryAcquire()) {
+            if (timer.timeLeft() == 0) return false;
+
+            receiveReplies(pollTimeout(timer));
+            deadlines.expire();
+            deliverPromises();
+        }
+        return true;
+    }
+
+    /**
+     * Holds a permit of the backpressure, until the request settles or is cancelled.
+     * Registered at the adapter, so the permit is released on the thread that owns the sockets.
+     */
+    private static class PermitCallback extends Callback<Serializable> {
+        private final Backpressure backpressure;
+        private final Callback callback;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private volatile long sentAt;
+
+        PermitCallback(Backpressure backpressure, Callback callback) {
+            this.backpressure = backpressure;
+            this.callback = callback;
+        }
+
+        /**
+         * Called when the request is handed to send(). Starts the round trip time.
+         */
+        void sent() {
+            sentAt = System.nanoTime();
+        }
+
+        // permits are released before the callback runs, so it can issue new requests
 
-        for(PromiseContainer<Callback> promise : openPromises) {
-            if (promise.isCleared()) {
-                promise.keep();
+        @Override
+        public void onSuccess(Serializable reply) {
+            onSuccess(reply, -1);
+        }
+
+        @Override
+        void onSuccess(Serializable reply, int frameBytes) {
+            if (released.compareAndSet(false, true)) backpressure.replied(System.nanoTime() - sentAt);
+            callback.success(reply, frameBytes);
+        }
+
+        @Override
+        public void onError(RequestException e) {
+            // errors do not tell about the capacity of the service
+            if (released.compareAndSet(false, true)) backpressure.release();
+            callback.error(e);
+        }
+
+        @Override
+        public void onTimeout() {
+            if (released.compareAndSet(false, true)) backpressure.timedOut();
+            callback.timeout();
+        }
 
-                // need to delay removal since we are iterating over openPromises
-                // java.util.ConcurrentModificationException
-                toRemove.add(promise);
+        @Override
+        void cancelled() {
+            if (released.compareAndSet(false, true)) backpressure.release();
+            callback.cancelled();
+        }
+    }
+
+    ///////////// CIRCUIT BREAKER /////////////////
+
+    private static RequestException breakerOpen(Serializable request) {
+        return new RequestException("Circuit breaker open for service of " + request.getClass());
+    }
+
+    /**
+     * Deliver error of a request, that was not sent, on the next gatherResults() of the calling thread.
+     */
+    private void deliverError(final Callback callback, final RequestException e) {
+        getReadyPromises().add(new Promise(new Runnable() {
+            @Override
+            public void run() {
+                callback.error(e);
             }
+        }));
+    }
+
+    /**
+     * Reports the outcome of a request to the circuit breaker of its service.
+     */
+    private static class BreakerCallback extends Callback<Serializable> {
+        private final CircuitBreaker breaker;
+        private final boolean probe;
+        private final Callback callback;
+
+        BreakerCallback(CircuitBreaker breaker, CircuitBreaker.Admission admission, Callback callback) {
+            this.breaker = breaker;
+            this.probe = admission == CircuitBreaker.Admission.PROBE;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onSuccess(Serializable reply) {
+            onSuccess(reply, -1);
+        }
+
+        @Override
+        void onSuccess(Serializable reply, int frameBytes) {
+            breaker.onSuccess(probe);
+            callback.success(reply, frameBytes);
         }
 
-        for(PromiseContainer promise : toRemove) {
-            openPromises.remove(promise);
+        @Override
+        public void onError(RequestException e) {
+            breaker.onFailure(probe);
+            callback.error(e);
         }
+
+        @Override
+        public void onTimeout() {
+            breaker.onFailure(probe);
+            callback.timeout();
+        }
+
+        @Override
+        void cancelled() {
+            breaker.onCancel(probe);
+            callback.cancelled();
+        }
+    }
+
+    ///////////// CACHING /////////////////
+
+    /**
+     * Deliver cached reply on the next gatherResults() of the calling thread, like a promise without dependencies.
+     */
+    private void deliverCached(final Callback callback, final Serializable reply) {
+        getReadyPromises().add(new Promise(new Runnable() {
+            @Override
+            public void run() {
+                callback.success(reply);
+            }
+        }));
     }
 
-    private class PromiseContainer<T> {
-        private final Runnable runnable;
-        private final Set<T> dependencies = new HashSet<T>();
+    /**
+     * Caches successful replies before passing them on.
+     */
+    private static class CachingCallback extends Callback<Serializable> {
+        private final ReplyCache cache;
+        private final Serializable request;
+        private final Callback callback;
 
-        private boolean kept = false;
+        CachingCallback(ReplyCache cache, Serializable request, Callback callback) {
+            this.cache = cache;
+            this.request = request;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onSuccess(Serializable reply) {
+            onSuccess(reply, -1);
+        }
+
+        @Override
+        void onSuccess(Serializable reply, int frameBytes) {
+            cache.put(request, reply, frameBytes);
+            callback.success(reply, frameBytes);
+        }
 
-        private PromiseContainer(Runnable runnable, T[] dependencies) {
-            this.dependencies.addAll(Arrays.asList(dependencies));
-            this.runnable  = runnable;
+        @Override
+        public void onError(RequestException e) {
+            callback.error(e);
+        }
+
+        @Override
+        public void onTimeout() {
+            callback.timeout();
+        }
+    }
+
+    ///////////// BATCHES /////////////////
+
+    /**
+     * Fans out the reply of a batch to the callbacks of the individual requests.
+     */
+    private static class BatchCallback extends Callback<Serializable> {
+        private final Callback[] callbacks;
+
+        BatchCallback(Callback[] callbacks) {
+            this.callbacks = callbacks;
+        }
+
+        @Override
+        public void onSuccess(Serializable reply) {
+            if (!(reply instanceof List) || ((List) reply).size() != callbacks.length) {
+                onError(new RequestException("Invalid batch reply for " + callbacks.length + " requests: " + reply));
+                return;
+            }
+
+            List<Serializable> replies = (List<Serializable>) reply;
+            for (int i = 0; i < callbacks.length; i++) {
+                if (callbacks[i] == null) continue;
+
+                Serializable item = replies.get(i);
+                if (item instanceof RequestException) {
+                    callbacks[i].error((RequestException) item);
+                } else {
+                    callbacks[i].success(item);
+                }
+            }
+        }
+
+        @Override
+        public void onError(RequestException e) {
+            for (Callback c : callbacks) {
+                if (c != null) c.error(e);
+            }
+        }
+
+        @Override
+        public void onTimeout() {
+            for (Callback c : callbacks) {
+                if (c != null) c.timeout();
+            }
+        }
+    }
+
+    ///////////// HEDGING /////////////////
+
+    /**
+     * Sends a request and, if the reply is late, a hedge. Delivers the first reply to the wrapped callback.
+     *
+     * Each copy is registered as Attempt at its adapter. The attempt that settles first wins.
+     * A losing hedge is cancelled, so its reply is discarded on arrival. A losing original is kept
+     * until its reply or deadline, so the policy learns its latency. Original requests without
+     * deadline are cancelled, their latency is recorded as the time until the hedge won.
+     * The hedge shares the deadline of the original request and takes its own backpressure permit.
+     * It is not sent, if no permit is available. The wrapped callback times out when all sent
+     * attempts have timed out.
+     *
+     * Confined to the thread that owns the adapters.
+     */
+    private static class HedgedCallback {
+        private final ServiceEndpoints service;
+        private final HedgePolicy policy;
+        private final Serializable request;
+        private final Callback callback;
+        private final int timeout;
+        private final TimerWheel deadlines;
+
+        private final Attempt[] attempts = new Attempt[2];   // original, hedge
+        private int pending = 0;
+        private boolean settled = false;
+
+        HedgedCallback(ServiceEndpoints service, HedgePolicy policy, Serializable request, Callback callback,
+                       int timeout, TimerWheel deadlines) {
+            this.service = service;
+            this.policy = policy;
+            this.request = request;
+            this.callback = callback;
+            this.timeout = timeout;
+            this.deadlines = deadlines;
+        }
+
+        void start() {
+            attempts[0] = send(0, service.select(), null, timeout);
+
+            final int delay = policy.onRequest();
+            if (delay >= 0 && (timeout < 0 || delay < timeout)) {
+                deadlines.schedule(delay, new Runnable() {
+                    @Override
+                    public void run() {
+                        hedge(delay);
+                    }
+                });
+            }
+        }
+
+        private void hedge(int delay) {
+            if (settled) return;
+
+            // the hedge is a request in flight of its own
+            Backpressure backpressure = service.getBackpressure();
+            if (backpressure != null && !backpressure.tryAcquire()) return;
+
+            if (!policy.tryHedge()) {
+                if (backpressure != null) backpressure.release();
+                return;
+            }
+
+            int remaining = timeout < 0 ? -1 : timeout - delay;
+            attempts[1] = send(1, service.select(attempts[0].adapter), backpressure, remaining);
         }
 
         /**
-         * Removes dependency from the list of dependencies of this promise
-         * @param dependency
+         * @param backpressure  the permit was acquired from. null if none.
          */
-        public void clearDependency(T dependency) {
-            dependencies.remove(dependency);
+        private Attempt send(int index, ZmqAdapterAsync adapter, Backpressure backpressure, int timeout) {
+            Attempt attempt = new Attempt(index, adapter);
+            pending++;
+
+            Callback registered = attempt;
+            if (backpressure != null) {
+                PermitCallback permit = new PermitCallback(backpressure, attempt);
+                permit.sent();
+                registered = permit;
+            }
+
+            attempt.sentAt = System.nanoTime();
+            attempt.callbackId = executeWithDeadline(adapter, request, registered, timeout, deadlines);
+            return attempt;
         }
 
         /**
-         * @return sucess   true if all dependencies are removed
+         * Discard both attempts. Called when the caller timed out.
          */
-        public boolean isCleared() {
-            return dependencies.isEmpty();
+        void cancel() {
+            settled = true;
+            for (Attempt attempt : attempts) {
+                if (attempt != null) attempt.adapter.cancel(attempt.callbackId);
+            }
+            callback.cancelled();
+        }
+
+        private void settle(int index, Callback.State state, Object result, int frameBytes) {
+            settled = true;
+
+            for (Attempt attempt : attempts) {
+                if (attempt == null || attempt.index == index || attempt.done) continue;
+
+                if (attempt.index == 0 && timeout >= 0) {
+                    attempt.linger();
+                } else {
+                    if (attempt.index == 0 && state == Callback.State.SUCCESS) {
+                        policy.recordLatency(System.nanoTime() - attempt.sentAt);
+                    }
+                    attempt.adapter.cancel(attempt.callbackId);
+                }
+            }
+
+            switch (state) {
+                case SUCCESS:
+                    if (index == 1) policy.hedgeWon();
+                    callback.success((Serializable) result, frameBytes);
+                    break;
+                case ERROR:
+                    callback.error((RequestException) result);
+                    break;
+                default:
+                    callback.timeout();
+            }
+        }
+
+        private class Attempt extends Callback<Serializable> {
+            final int index;
+            final ZmqAdapterAsync adapter;
+            int callbackId;
+            long sentAt;
+            boolean done = false;
+            private boolean lingering = false;
+
+            Attempt(int index, ZmqAdapterAsync adapter) {
+                this.index = index;
+                this.adapter = adapter;
+            }
+
+            /**
+             * Keep the attempt registered after it lost, without making gatherResults() wait for it.
+             */
+            void linger() {
+                lingering = true;
+                adapter.linger();
+            }
+
+            private void finish() {
+                done = true;
+                pending--;
+                if (lingering) {
+                    lingering = false;
+                    adapter.unlinger();
+                }
+            }
+
+            @Override
+            public void onSuccess(Serializable reply) {
+                onSuccess(reply, -1);
+            }
+
+            @Override
+            void onSuccess(Serializable reply, int frameBytes) {
+                finish();
+                if (index == 0) policy.recordLatency(System.nanoTime() - sentAt);
+                if (!settled) settle(index, Callback.State.SUCCESS, reply, frameBytes);
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                finish();
+                if (!settled) settle(index, Callback.State.ERROR, e, -1);
+            }
+
+            @Override
+            public void onTimeout() {
+                finish();
+                if (!settled && pending == 0) settle(index, Callback.State.TIMEOUT, null, -1);
+            }
+
+            @Override
+            void cancelled() {
+                finish();
+            }
+        }
+    }
+
+    ///////////// FUTURES /////////////////
+
+    /**
+     * Completes a future with the outcome of a request.
+     */
+    private static class FutureCallback<T extends Serializable> extends Callback<T> {
+        private final CompletableFuture<T> future;
+
+        FutureCallback(CompletableFuture<T> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onSuccess(T reply) {
+            future.complete(reply);
+        }
+
+        @Override
+        public void onError(RequestException e) {
+            future.completeExceptionally(e);
+        }
+
+        @Override
+        public void onTimeout() {
+            future.completeExceptionally(new TimeoutException());
+        }
+    }
+
+
+    ///////////// REACTOR MODE /////////////////
+
+    private final ThreadLocal<Inbox> inboxes = new ThreadLocal<Inbox>() {
+        @Override
+        protected Inbox initialValue() {
+            return new Inbox();
+        }
+    };
+
+    private Inbox getInbox() {
+        return inboxes.get();
+    }
+
+    /**
+     * Replies routed to a single caller thread by the reactor.
+     *
+     * Only deliveries is accessed by the reactor thread,
+     * all other fields are confined to the owning thread.
+     */
+    private class Inbox {
+        final BlockingQueue<Runnable> deliveries = new LinkedBlockingQueue<Runnable>();
+        final Set<RoutedCallback> outstanding = new LinkedHashSet<RoutedCallback>();
+        final Queue<Promise> readyPromises = new ArrayDeque<Promise>();
+    }
+
+    /**
+     * Registered at the adapter on behalf of a caller thread.
+     *
+     * Executed on the reactor thread, and forwards the reply to the inbox of the
+     * caller thread, where the wrapped callback is executed in gatherResults().
+     * Exactly one of the reactor (reply) or the caller (timeout) settles the callback.
+     */
+    private class RoutedCallback extends Callback<Serializable> {
+        private final Callback callback;
+        private final Inbox inbox;
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+
+        // written and read on reactor thread only
+        private ZmqAdapterAsync adapter;
+        private int callbackId;
+        private HedgedCallback hedged;
+
+        RoutedCallback(Callback callback, Inbox inbox) {
+            this.callback = callback;
+            this.inbox = inbox;
+            inbox.outstanding.add(this);
+        }
+
+        void bind(ZmqAdapterAsync adapter, int callbackId) {
+            this.adapter = adapter;
+            this.callbackId = callbackId;
+        }
+
+        void bind(HedgedCallback hedged) {
+            this.hedged = hedged;
+        }
+
+        @Override
+        public void onSuccess(Serializable reply) {
+            onSuccess(reply, -1);
+        }
+
+        @Override
+        void onSuccess(final Serializable reply, final int frameBytes) {
+            route(new Runnable() {
+                @Override
+                public void run() {
+                    callback.success(reply, frameBytes);
+                }
+            });
+        }
+
+        @Override
+        public void onError(final RequestException e) {
+            route(new Runnable() {
+                @Override
+                public void run() {
+                    callback.error(e);
+                }
+            });
+        }
+
+        @Override
+        public void onTimeout() {
+            route(new Runnable() {
+                @Override
+                public void run() {
+                    callback.timeout();
+                }
+            });
+        }
+
+        private void route(final Runnable delivery) {
+            if (!settled.compareAndSet(false, true)) return; // caller timed out already
+
+            inbox.deliveries.add(new Runnable() {
+                @Override
+                public void run() {
+                    inbox.outstanding.remove(RoutedCallback.this);
+                    delivery.run();
+                }
+            });
         }
 
         /**
-         * Execute stored callback.
+         * Called on the caller thread when gatherResults() times out.
          *
-         * Throws IllegalStateException if called more than once.
+         * @return true if the callback was timed out. false if the reply was routed already.
          */
-        public void keep() {
-            if (kept) {
-                throw new IllegalStateException("Called keep() twice.");
+        boolean expire() {
+            if (!settled.compareAndSet(false, true)) return false;
+
+            callback.timeout();
+
+            reactor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (hedged != null) {
+                        hedged.cancel();
+                    } else if (adapter != null) {
+                        adapter.cancel(callbackId);
+                    }
+                }
+            });
+            return true;
+        }
+    }
+
+    /**
+     * gatherResults() for REACTOR mode.
+     * Executes callbacks of requests issued by the calling thread.
+     */
+    private void gatherRoutedResults(final int timeout) {
+        Inbox inbox = getInbox();
+
+        CountdownTimer timer = new CountdownTimer(timeout);
+        timer.start();
+
+        deliverPromises();
+
+        boolean timedOut = false;
+        try {
+            while (!inbox.outstanding.isEmpty()) {
+                int timeLeft = timedOut ? -1 : timer.timeLeft();
+                Runnable delivery = timeLeft == -1 ?
+                        inbox.deliveries.take() :
+                        inbox.deliveries.poll(timeLeft, TimeUnit.MILLISECONDS);
+
+                if (delivery == null) {
+                    log.debug("Timeout.");
+                    timedOut = true;
+                } else {
+                    delivery.run();
+                }
+
+                if (timedOut) {
+                    // Remaining callbacks were settled by the reactor, their deliveries are on the way.
+                    expireOutstanding(inbox);
+                }
+
+                deliverPromises();
             }
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for replies.");
+            Thread.currentThread().interrupt();
+        }
+
+        log.debug("Finished gathering results.");
+    }
 
-            runnable.run();
-            kept = true;
+    private void expireOutstanding(Inbox inbox) {
+        for (RoutedCallback routed : new ArrayList<RoutedCallback>(inbox.outstanding)) {
+            if (routed.expire()) {
+                inbox.outstanding.remove(routed);
+            }
         }
     }
 
+    /**
+     * executeSync() for REACTOR mode.
+     * The reply is received on the reactor thread, the calling thread is parked until it arrives.
+     *
+     * @param frameBytes    receives the size of the request and reply frames
+     */
+    private Serializable executeSyncOnReactor(final ServiceEndpoints service, final Serializable request,
+                                              final int timeout, final int[] frameBytes) throws TimeoutException {
+        final ZmqAdapterAsync[] adapter = new ZmqAdapterAsync[1]; // selected on the reactor thread
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        final int[] callbackId = new int[1];
+
+        final Callback<Serializable> callback = new Callback<Serializable>() {
+            @Override
+            public void onSuccess(Serializable reply) {
+                onSuccess(reply, -1);
+            }
+
+            @Override
+            void onSuccess(Serializable reply, int size) {
+                result[0] = reply;
+                frameBytes[0] = size;
+                done.countDown();
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                result[0] = e;
+                done.countDown();
+            }
+        };
+
+        reactor.submit(new Runnable() {
+            @Override
+            public void run() {
+                adapter[0] = service.select();
+                callbackId[0] = adapter[0].execute(request, callback, timeout);
+            }
+        });
+
+        try {
+            if (timeout == -1) {
+                done.await();
+            } else if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+                reactor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        adapter[0].expire(callbackId[0]);
+                    }
+                });
+                throw new TimeoutException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(e);
+        }
+
+        if (result[0] instanceof RequestException) throw (RequestException) result[0];
+
+        return (Serializable) result[0];
+    }
 
 }
@@ -0,0 +1,202 @@
+package net.hh.request_dispatcher;
+
+import org.apache.log4j.Logger;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * I/O thread of a shared Dispatcher.
+ *
+ * Owns all ZmqAdapterAsync sockets of the dispatcher. Sockets are never
+ * touched by any other thread:
+ * - other threads pass commands through a lock-free queue (submit())
+ * - the reactor executes commands, sends requests, polls and receives replies
+ * - callbacks of the adapters are executed on this thread
+ *
+ * The reactor is woken up through a pipe, which is registered at the poller
+ * next to the adapter sockets. The pipe is only written to if no wakeup is pending,
+ * so bursts of commands cost a single write.
+ */
+class DispatcherReactor extends Thread {
+
+    private static final Logger log = Logger.getLogger(DispatcherReactor.class);
+
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+    private final Pipe wakeupPipe;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final ByteBuffer wakeupByte = ByteBuffer.allocate(1);
+    private final ByteBuffer drainBuffer = ByteBuffer.allocate(64);
+
+    // only accessed by the reactor thread
+    private final ZMQ.Poller poller = new ZMQ.Poller(1);
+    private final List<ZmqAdapterAsync> adapters = new ArrayList<ZmqAdapterAsync>(); // poller index - 1
+    private final TimerWheel deadlines = new TimerWheel();
+
+    private volatile boolean running = true;
+
+    public DispatcherReactor() {
+        super("DispatcherReactor");
+        setDaemon(true);
+
+        try {
+            wakeupPipe = Pipe.open();
+            wakeupPipe.source().configureBlocking(false);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create wakeup pipe", e);
+        }
+
+        poller.register(wakeupPipe.source(), ZMQ.Poller.POLLIN);
+    }
+
+    // COMMANDS //
+
+    /**
+     * Queue command for execution on the reactor thread.
+     * Can be called from any thread.
+     */
+    public void submit(final Runnable command) {
+        if (!running) {
+            throw new IllegalStateException("Reactor is shut down.");
+        }
+
+        commands.add(command);
+        wakeup();
+    }
+
+    /**
+     * Hand over adapter to the reactor. The adapter must not be used by
+     * the calling thread afterwards.
+     */
+    public void register(final ZmqAdapterAsync adapter) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                int index = poller.register(adapter.getPollItem());
+                adapters.add(index - 1, adapter);
+            }
+        });
+    }
+
+    /**
+     * Deadlines of callbacks registered on the reactor.
+     * Must only be accessed by commands running on the reactor thread.
+     */
+    TimerWheel getDeadlines() {
+        return deadlines;
+    }
+
+    /**
+     * Stop the reactor thread and close all sockets.
+     * Blocks until the reactor has terminated.
+     */
+    public void shutdown() {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+            }
+        });
+
+        try {
+            join();
+        } catch (InterruptedException e) {
+            log.error("Interrupted join", e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // REACTOR LOOP //
+
+    @Override
+    public void run() {
+        log.info("Starting reactor.");
+        try {
+            while (running) {
+                poller.poll(deadlines.timeLeft());
+
+                if (poller.pollin(0)) {
+                    drainWakeupPipe();
+                }
+
+                runCommands();
+
+                for (int i = 0; i < adapters.size(); i++) {
+                    if (poller.pollin(i + 1)) {
+                        adapters.get(i).drain();
+                    }
+                }
+
+                deadlines.expire();
+            }
+        } catch (ZMQException e) {
+            if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) throw e;
+            log.debug("Received ETERM.");
+        } finally {
+            running = false;
+            log.info("Terminating reactor. Closing sockets.");
+            for (ZmqAdapterAsync adapter : adapters) {
+                adapter.close();
+            }
+            closePipe();
+        }
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                log.error("Command failed on reactor thread", e);
+            }
+        }
+    }
+
+    private void wakeup() {
+        if (!wakeupPending.compareAndSet(false, true)) return; // reactor is already signaled
+
+        try {
+            synchronized (wakeupByte) {
+                wakeupByte.clear();
+                wakeupPipe.sink().write(wakeupByte);
+            }
+        } catch (IOException e) {
+            log.error("Cannot wake up reactor", e);
+        }
+    }
+
+    /**
+     * Reset the wakeup signal. Must be called before running the commands, so that
+     * commands submitted concurrently trigger a new wakeup.
+     */
+    private void drainWakeupPipe() {
+        wakeupPending.set(false);
+        try {
+            do {
+                drainBuffer.clear();
+            } while (wakeupPipe.source().read(drainBuffer) > 0);
+        } catch (IOException e) {
+            log.error("Cannot read wakeup pipe", e);
+        }
+    }
+
+    private void closePipe() {
+        try {
+            wakeupPipe.sink().close();
+            wakeupPipe.source().close();
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package net.hh.request_dispatcher;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedging of asynchronous requests to a service. See Dispatcher.setHedgePolicy().
+ *
+ * If no reply arrived within the given percentile of the recently observed latencies,
+ * the request is sent a second time, to another endpoint if the service has several.
+ * The first reply wins, the other one is discarded. Only use for idempotent requests.
+ *
+ * Hedges are limited by a budget of budgetPercent hedges per 100 requests, allowing
+ * bursts of MAX_BURST hedges. No request is hedged before MIN_SAMPLES latencies were observed.
+ *
+ * The counters can be read from any thread. A policy must not be shared between services.
+ */
+public class HedgePolicy {
+
+    static final int WINDOW = 1000;             // latest latencies the percentile is computed on
+    static final int MIN_SAMPLES = 100;
+    static final int MAX_BURST = 10;
+    private static final int RECOMPUTE_EVERY = 100;
+
+    private final double percentile;
+    private final int budgetPercent;
+
+    // accessed by the thread that owns the adapters
+    private final int[] latencies = new int[WINDOW];    // in ms, ring buffer
+    private int sampleCount = 0;
+    private int budget = 0;                             // in hundredths of a hedge
+
+    private volatile int hedgeDelay = -1;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    /**
+     * @param percentile    of latency in (0, 100) after which a request is hedged. e.g. 95
+     * @param budgetPercent max. hedges per 100 requests
+     */
+    public HedgePolicy(double percentile, int budgetPercent) {
+        if (percentile <= 0 || percentile >= 100) throw new IllegalArgumentException("Percentile " + percentile);
+        if (budgetPercent < 0) throw new IllegalArgumentException("Budget " + budgetPercent);
+
+        this.percentile = percentile;
+        this.budgetPercent = budgetPercent;
+    }
+
+    // OWNER THREAD //
+
+    /**
+     * Called for every request of the service. Adds to the budget.
+     *
+     * @return delay in ms, after which the request is hedged. -1 for no hedging.
+     */
+    int onRequest() {
+        requests.incrementAndGet();
+        budget = Math.min(MAX_BURST * 100, budget + budgetPercent);
+        return hedgeDelay;
+    }
+
+    /**
+     * @return true if the budget allows a hedge. The hedge is counted as sent.
+     */
+    boolean tryHedge() {
+        if (budget < 100) return false;
+
+        budget -= 100;
+        hedgesSent.incrementAndGet();
+        return true;
+    }
+
+    void hedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    /**
+     * @param latencyNanos  from sending a request to its first reply
+     */
+    void recordLatency(long latencyNanos) {
+        latencies[sampleCount % WINDOW] = (int) Math.min(Integer.MAX_VALUE, (latencyNanos + 999999) / 1000000);
+        sampleCount++;
+
+        if (sampleCount >= MIN_SAMPLES && sampleCount % RECOMPUTE_EVERY == 0) {
+            int[] sorted = Arrays.copyOf(latencies, Math.min(sampleCount, WINDOW));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            hedgeDelay = Math.max(1, sorted[Math.max(0, index)]);
+        }
+    }
+
+    // METRICS //
+
+    /**
+     * @return current delay in ms, after which requests are hedged. -1 until enough latencies are observed.
+     */
+    public int getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getHedgesSent() {
+        return hedgesSent.get();
+    }
+
+    /**
+     * @return hedges whose reply arrived before the reply to the original request
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgePolicy{" +
+                "percentile=" + percentile +
+                ", budgetPercent=" + budgetPercent +
+                ", hedgeDelay=" + hedgeDelay +
+                ", requests=" + requests +
+                ", hedgesSent=" + hedgesSent +
+                ", hedgesWon=" + hedgesWon +
+                '}';
+    }
+}
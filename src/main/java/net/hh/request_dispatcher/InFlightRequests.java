@@ -0,0 +1,144 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces equal requests to a service while one of them is in flight.
+ *
+ * The first request is sent with a SharedCallback. Equal requests issued before its
+ * reply arrives are not sent, their callbacks are attached to the SharedCallback instead.
+ * All attached callbacks get the single reply, error or timeout of the request in flight,
+ * unless they were detached before, e.g. on their own timeout.
+ * The entry is removed as soon as the request settles or is cancelled, so later requests
+ * are sent again.
+ *
+ * Thread safe. Callbacks are joined on the calling thread and settled on the thread
+ * that owns the adapters. Attached callbacks are executed outside the lock.
+ */
+class InFlightRequests {
+
+    private final KeyExtractor keyExtractor;
+
+    private final Map<Object, SharedCallback> inFlight = new HashMap<Object, SharedCallback>();
+
+    private long coalesced = 0;
+
+    public InFlightRequests(KeyExtractor keyExtractor) {
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * Attach callback to an equal request in flight.
+     *
+     * @return callback to send the request with. null if the request must not be sent,
+     *         since the callback was attached to an equal request in flight.
+     */
+    public Callback join(Serializable request, Callback callback) {
+        Object key = keyExtractor.keyOf(request);
+        if (key == null) return callback;
+
+        synchronized (this) {
+            SharedCallback shared = inFlight.get(key);
+            if (shared != null) {
+                shared.callbacks.add(callback);
+                coalesced++;
+                return null;
+            }
+
+            shared = new SharedCallback(key, callback);
+            inFlight.put(key, shared);
+            return shared;
+        }
+    }
+
+    /**
+     * Detach callback from the equal request in flight. It does not receive the outcome of the request then.
+     *
+     * @return true if the callback was attached. false if the request settled already.
+     */
+    public boolean detach(Serializable request, Callback callback) {
+        Object key = keyExtractor.keyOf(request);
+        if (key == null) return false;
+
+        synchronized (this) {
+            SharedCallback shared = inFlight.get(key);
+            return shared != null && shared.callbacks.remove(callback);
+        }
+    }
+
+    /**
+     * @return number of requests that were not sent, since an equal request was in flight.
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Fans out the outcome of the request in flight to all attached callbacks.
+     */
+    private class SharedCallback extends Callback<Serializable> {
+        private final Object key;
+        private final List<Callback> callbacks = new ArrayList<Callback>(1);
+
+        SharedCallback(Object key, Callback first) {
+            this.key = key;
+            callbacks.add(first);
+        }
+
+        /**
+         * Remove the entry, so no more callbacks are attached or detached.
+         *
+         * @return callbacks attached until then
+         */
+        private List<Callback> settle() {
+            synchronized (InFlightRequests.this) {
+                inFlight.remove(key, this);
+                return new ArrayList<Callback>(callbacks);
+            }
+        }
+
+        @Override
+        public void onSuccess(Serializable reply) {
+            onSuccess(reply, -1);
+        }
+
+        @Override
+        void onSuccess(Serializable reply, int frameBytes) {
+            for (Callback c : settle()) {
+                c.success(reply, frameBytes);
+            }
+        }
+
+        @Override
+        public void onError(RequestException e) {
+            for (Callback c : settle()) {
+                c.error(e);
+            }
+        }
+
+        @Override
+        public void onTimeout() {
+            for (Callback c : settle()) {
+                c.timeout();
+            }
+        }
+
+        /**
+         * Cancels all attached callbacks, which release what they hold (e.g. a permit).
+         */
+        @Override
+        void cancelled() {
+            for (Callback c : settle()) {
+                c.cancelled();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+
+/**
+ * Extracts the key under which equal requests are identified.
+ * Used by ReplyCache and by coalescing of in-flight requests.
+ */
+public interface KeyExtractor {
+
+    /**
+     * Identifies requests by equals() and hashCode() of the request itself.
+     */
+    KeyExtractor EQUAL_REQUESTS = new KeyExtractor() {
+        @Override
+        public Object keyOf(Serializable request) {
+            return request;
+        }
+    };
+
+    /**
+     * @return key with equals() and hashCode(). null if the request must not be shared.
+     */
+    Object keyOf(Serializable request);
+}
@@ -0,0 +1,72 @@
+package net.hh.request_dispatcher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram of fixed size, in nanoseconds.
+ *
+ * Buckets are log-linear, like in HdrHistogram: each power of two is split into
+ * SUB_BUCKETS linear buckets, so a recorded value is off by at most 1 / SUB_BUCKETS (~3%).
+ * Values up to MAX_VALUE (~18 min) are recorded, larger ones are clamped.
+ * Recording is a single atomic increment and does not allocate.
+ */
+class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_BITS = 40;
+    static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * @return copy of the bucket counts. Not atomic, concurrently recorded values may be missing.
+     */
+    long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    static int bucketOf(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return SUB_BUCKETS * magnitude + (int) (value >>> magnitude);
+    }
+
+    /**
+     * @return highest value, that is recorded into bucket
+     */
+    static long highestValueOf(int bucket) {
+        int magnitude = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long subBucket = bucket - SUB_BUCKETS * magnitude;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+    /**
+     * @param counts        as returned by snapshot()
+     * @param percentile    in [0, 100]
+     * @return value at percentile in nanos. 0 if empty.
+     */
+    static long valueAtPercentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return highestValueOf(i);
+        }
+        return highestValueOf(counts.length - 1);
+    }
+}
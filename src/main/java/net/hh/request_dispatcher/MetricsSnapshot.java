@@ -0,0 +1,157 @@
+package net.hh.request_dispatcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters and latency of an endpoint, or of all endpoints of a service, at one point in time.
+ * See Dispatcher.getMetrics().
+ *
+ * Latencies are measured from sending a request to executing its callback, for replies
+ * and errors received from the service. Timeouts are not included.
+ */
+public class MetricsSnapshot {
+
+    private final long sent;
+    private final long succeeded;
+    private final long errored;
+    private final long unsent;
+    private final long timedOut;
+    private final long cancelled;
+    private final long orphaned;
+    private final long[] latencyCounts;
+
+    MetricsSnapshot(long sent, long succeeded, long errored, long unsent, long timedOut, long cancelled,
+                    long orphaned, long[] latencyCounts) {
+        this.sent = sent;
+        this.succeeded = succeeded;
+        this.errored = errored;
+        this.unsent = unsent;
+        this.timedOut = timedOut;
+        this.cancelled = cancelled;
+        this.orphaned = orphaned;
+        this.latencyCounts = latencyCounts;
+    }
+
+    /**
+     * @return sum of this and other
+     */
+    public MetricsSnapshot merge(MetricsSnapshot other) {
+        long[] counts = new long[latencyCounts.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencyCounts[i] + other.latencyCounts[i];
+        }
+        return new MetricsSnapshot(sent + other.sent, succeeded + other.succeeded, errored + other.errored,
+                unsent + other.unsent, timedOut + other.timedOut, cancelled + other.cancelled,
+                orphaned + other.orphaned, counts);
+    }
+
+    /**
+     * @return requests with a callback, that were sent. One way requests are not counted.
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    public long getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return errors of the request handler and protocol errors of sent requests.
+     */
+    public long getErrored() {
+        return errored;
+    }
+
+    /**
+     * @return requests with a callback, that could not be sent, e.g. at the high water mark.
+     *         Not counted as sent.
+     */
+    public long getUnsent() {
+        return unsent;
+    }
+
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return requests, that were withdrawn by the client without outcome. e.g. losing hedges.
+     */
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return replies, that arrived after their request timed out or was cancelled.
+     */
+    public long getOrphaned() {
+        return orphaned;
+    }
+
+    /**
+     * @return requests waiting for their reply
+     */
+    public long getInFlight() {
+        return Math.max(0, sent - succeeded - errored - timedOut - cancelled);
+    }
+
+    /**
+     * @return number of measured latencies
+     */
+    public long getLatencyCount() {
+        long total = 0;
+        for (long count : latencyCounts) total += count;
+        return total;
+    }
+
+    /**
+     * @param percentile    in [0, 100]. e.g. 99.9
+     * @return latency in ms. 0 if none was measured.
+     */
+    public double getLatency(double percentile) {
+        return toMillis(LatencyHistogram.valueAtPercentile(latencyCounts, percentile));
+    }
+
+    /**
+     * @return max. latency in ms. 0 if none was measured.
+     */
+    public double getLatencyMax() {
+        return getLatency(100);
+    }
+
+    /**
+     * @return mean latency in ms. 0 if none was measured.
+     */
+    public double getLatencyMean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < latencyCounts.length; i++) {
+            total += latencyCounts[i];
+            sum += (double) latencyCounts[i] * LatencyHistogram.highestValueOf(i);
+        }
+        return total == 0 ? 0 : toMillis(sum / total);
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "sent=" + sent +
+                ", succeeded=" + succeeded +
+                ", errored=" + errored +
+                ", unsent=" + unsent +
+                ", timedOut=" + timedOut +
+                ", cancelled=" + cancelled +
+                ", orphaned=" + orphaned +
+                ", inFlight=" + getInFlight() +
+                ", p50=" + getLatency(50) +
+                ", p99=" + getLatency(99) +
+                ", p999=" + getLatency(99.9) +
+                ", max=" + getLatencyMax() +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runnable that is executed once all callbacks it depends on have settled.
+ *
+ * Each dependency holds a reference to the promise and decrements an atomic counter
+ * when it settles, so completing a callback costs O(number of dependent promises).
+ *
+ * A promise is itself a Callback and can be a dependency of other promises:
+ * - all dependencies succeeded  -> the runnable is executed and dependents succeed.
+ * - a dependency failed         -> onError() is called instead and dependents fail.
+ * - a dependency timed out      -> onTimeout() is called instead and dependents time out.
+ *
+ * Override onError() and onTimeout() to handle broken promises.
+ */
+public class Promise extends Callback<Serializable> {
+
+    private final Runnable runnable;
+
+    private final AtomicInteger pending = new AtomicInteger(1); // released after registration
+    private final AtomicReference<RequestException> firstError = new AtomicReference<RequestException>();
+    private volatile boolean timedOut = false;
+
+    public Promise(Runnable runnable) {
+        this.runnable = runnable;
+    }
+
+    /**
+     * Executes the runnable. Called when all dependencies succeeded.
+     */
+    @Override
+    public final void onSuccess(Serializable ignored) {
+        runnable.run();
+    }
+
+    /**
+     * Register at dependencies. Can be called only once.
+     *
+     * @return true if all dependencies have already settled.
+     *         The promise needs to be kept by the caller, by calling keep().
+     */
+    boolean dependOn(Callback... dependencies) {
+        pending.addAndGet(dependencies.length);
+        for (Callback dependency : dependencies) {
+            dependency.addDependent(this);
+        }
+        return pending.decrementAndGet() == 0;
+    }
+
+    /**
+     * Called by a dependency once it has settled.
+     */
+    void dependencySettled(State state, RequestException error) {
+        if (state == State.ERROR) firstError.compareAndSet(null, error);
+        if (state == State.TIMEOUT) timedOut = true;
+
+        if (pending.decrementAndGet() == 0) keep();
+    }
+
+    /**
+     * Settle promise according to the outcome of its dependencies.
+     */
+    void keep() {
+        RequestException error = firstError.get();
+        if (error != null) {
+            error(error);
+        } else if (timedOut) {
+            timeout();
+        } else {
+            success(null);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package net.hh.request_dispatcher;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side cache of replies to idempotent requests. See Dispatcher.setReplyCache().
+ *
+ * Requests are keyed by equals()/hashCode(), or by the key returned by a KeyExtractor.
+ * Replies expire ttl ms after they were received. The cache holds at most maxBytes of
+ * replies and keys, measured by the serialized size of reply and request. The dispatcher
+ * charges the sizes of the received and sent frames. The least recently used replies are evicted first.
+ *
+ * Cached replies are shared by all callers and must not be modified.
+ * Only successful replies are cached. Thread safe.
+ */
+public class ReplyCache {
+
+    static final int ENTRY_OVERHEAD = 64;   // bytes charged per entry on top of reply and key
+
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final KeyExtractor keyExtractor;
+
+    // guarded by this. In access order, eldest first.
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param ttl       in ms. Time a reply is served from the cache.
+     * @param maxBytes  of cached replies
+     */
+    public ReplyCache(int ttl, long maxBytes) {
+        this(ttl, maxBytes, KeyExtractor.EQUAL_REQUESTS);
+    }
+
+    /**
+     * @param ttl           in ms. Time a reply is served from the cache.
+     * @param maxBytes      of cached replies
+     * @param keyExtractor  for requests that do not implement equals() and hashCode()
+     */
+    public ReplyCache(int ttl, long maxBytes, KeyExtractor keyExtractor) {
+        if (ttl <= 0) throw new IllegalArgumentException("TTL " + ttl);
+        if (maxBytes <= 0) throw new IllegalArgumentException("Max bytes " + maxBytes);
+
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.maxBytes = maxBytes;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * @return cached reply. null if none or expired.
+     */
+    public Serializable get(Serializable request) {
+        Object key = keyExtractor.keyOf(request);
+        if (key == null) return null;
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.expiresAt < 0) {
+                hits.incrementAndGet();
+                return entry.reply;
+            }
+            if (entry != null) remove(key, entry);
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache reply to request. Evicts the least recently used replies, if the cache is full.
+     * Replies larger than the cache are not cached.
+     *
+     * Request and reply are serialized to measure their size.
+     */
+    public void put(Serializable request, Serializable reply) {
+        put(request, reply, -1);
+    }
+
+    /**
+     * Like put(request, reply), with the size of the frames request and reply were transferred in.
+     * The key is charged with the size of the request it is extracted from.
+     *
+     * @param frameBytes    -1 if unknown. Request and reply are serialized then.
+     */
+    void put(Serializable request, Serializable reply, int frameBytes) {
+        Object key = keyExtractor.keyOf(request);
+        if (key == null || reply == null) return;
+
+        long payload = frameBytes >= 0 ? frameBytes : (long) sizeOf(request) + sizeOf(reply);
+        long size = payload + ENTRY_OVERHEAD;
+        if (size > maxBytes) return;
+
+        Entry entry = new Entry(reply, size, System.nanoTime() + ttlNanos);
+
+        synchronized (this) {
+            Entry old = entries.put(key, entry);
+            if (old != null) bytes -= old.size;
+            bytes += size;
+
+            Iterator<Map.Entry<Object, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                bytes -= evicted.size;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove all replies.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void remove(Object key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.size;
+    }
+
+    /**
+     * @return serialized size of object. Serialized into the thread local send buffer.
+     */
+    private static int sizeOf(Serializable object) {
+        SendBuffers buffers = SendBuffers.acquire();
+        try {
+            SerializationHelper.serialize(object, Codec.JAVA, buffers.payload);
+            return buffers.payload.size();
+        } finally {
+            buffers.release();
+        }
+    }
+
+    // METRICS //
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of cached replies, including expired ones that were not looked up since.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated memory of cached replies
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplyCache{" +
+                "size=" + getSize() +
+                ", bytes=" + getBytes() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    private static class Entry {
+        final Serializable reply;
+        final long size;
+        final long expiresAt;   // System.nanoTime()
+
+        Entry(Serializable reply, long size, long expiresAt) {
+            this.reply = reply;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package net.hh.request_dispatcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per stage latency of a traced request. See Dispatcher.setTracing().
+ *
+ * Client, worker and reply path stamp System.nanoTime() into the header of traced messages.
+ * The worker copies the stamps of the request into its reply, so the client can reassemble
+ * the breakdown without keeping state per request.
+ *
+ * Stages within one process are always valid. The transit stages compare the clocks of client
+ * and worker, which is only meaningful if both run on the same host (System.nanoTime() is
+ * CLOCK_MONOTONIC on Linux). Time spent in the queue of a ZmqWorkerProxy is part of REQUEST_TRANSIT.
+ *
+ * In REACTOR mode CALLBACK covers handing the reply to the calling thread, not the user callback.
+ */
+public class RequestTrace {
+
+    // stamp indexes in the header
+    static final int CLIENT_SEND = 0;
+    static final int CLIENT_SERIALIZED = 1;
+    static final int WORKER_RECEIVE = 2;
+    static final int HANDLER_START = 3;
+    static final int HANDLER_END = 4;
+    static final int REPLY_SERIALIZED = 5;
+    static final int CLIENT_RECEIVE = 6;
+    static final int CALLBACK_START = 7;
+    static final int CALLBACK_END = 8;
+    static final int STAMPS = 9;
+
+    public static enum Stage {
+        SERIALIZATION(CLIENT_SEND, CLIENT_SERIALIZED),
+        REQUEST_TRANSIT(CLIENT_SERIALIZED, WORKER_RECEIVE),
+        REQUEST_DESERIALIZATION(WORKER_RECEIVE, HANDLER_START),
+        HANDLER(HANDLER_START, HANDLER_END),
+        REPLY_SERIALIZATION(HANDLER_END, REPLY_SERIALIZED),
+        REPLY_TRANSIT(REPLY_SERIALIZED, CLIENT_RECEIVE),
+        REPLY_DESERIALIZATION(CLIENT_RECEIVE, CALLBACK_START),
+        CALLBACK(CALLBACK_START, CALLBACK_END);
+
+        private final int from;
+        private final int to;
+
+        Stage(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final String endpoint;
+    private final int requestTypeId;
+    private final long[] stamps;
+
+    RequestTrace(String endpoint, int requestTypeId, long[] stamps) {
+        this.endpoint = endpoint;
+        this.requestTypeId = requestTypeId;
+        this.stamps = stamps;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return see TransferHeader.requestTypeIdOf()
+     */
+    public int getRequestTypeId() {
+        return requestTypeId;
+    }
+
+    /**
+     * @return duration of stage in ns. -1 if a stamp is missing.
+     */
+    public long getNanos(Stage stage) {
+        return between(stage.from, stage.to);
+    }
+
+    /**
+     * @return ns from sending the request to the end of the callback, on the client clock
+     */
+    public long getTotalNanos() {
+        return between(CLIENT_SEND, CALLBACK_END);
+    }
+
+    /**
+     * @return ns from receiving the request to sending the reply, on the worker clock
+     */
+    public long getWorkerNanos() {
+        return between(WORKER_RECEIVE, REPLY_SERIALIZED);
+    }
+
+    private long between(int from, int to) {
+        if (stamps[from] == 0 || stamps[to] == 0) return -1;
+        return stamps[to] - stamps[from];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("RequestTrace{endpoint=").append(endpoint);
+        sb.append(", totalUs=").append(TimeUnit.NANOSECONDS.toMicros(getTotalNanos()));
+        for (Stage stage : Stage.values()) {
+            sb.append(", ").append(stage).append("Us=").append(TimeUnit.NANOSECONDS.toMicros(getNanos(stage)));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,81 @@
+package net.hh.request_dispatcher;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Thread local buffers for the send path.
+ *
+ * Payloads are serialized into a growable buffer that is kept between messages,
+ * so at steady state no buffers are allocated or copied while growing. ZMQ copies
+ * the used range into its own message, after which the buffer can be reused.
+ *
+ * Buffers that grew beyond MAX_RETAINED_SIZE for a single large message are
+ * released after use, so that a thread does not hold on to them forever.
+ */
+class SendBuffers {
+
+    private static final int INITIAL_SIZE = 1024;
+    private static final int MAX_RETAINED_SIZE = 1 << 20;
+
+    private static final ThreadLocal<SendBuffers> buffers = new ThreadLocal<SendBuffers>() {
+        @Override
+        protected SendBuffers initialValue() {
+            return new SendBuffers();
+        }
+    };
+
+    final PayloadBuffer payload = new PayloadBuffer();
+    final byte[] header = new byte[TransferHeader.TRACED_SIZE];
+
+    private boolean inUse = false;
+
+    private SendBuffers() {}
+
+    /**
+     * @return buffers of the current thread. Must be released with release().
+     */
+    static SendBuffers acquire() {
+        SendBuffers b = buffers.get();
+        if (b.inUse) {
+            // re-entrant use, e.g. from writeObject() of a serialized object. Do not share.
+            b = new SendBuffers();
+        }
+        b.inUse = true;
+        return b;
+    }
+
+    void release() {
+        payload.recycle();
+        inUse = false;
+    }
+
+    /**
+     * ByteArrayOutputStream with access to its internal buffer.
+     */
+    static class PayloadBuffer extends ByteArrayOutputStream {
+
+        PayloadBuffer() {
+            super(INITIAL_SIZE);
+        }
+
+        /**
+         * @return internal buffer. Valid bytes range from 0 to size().
+         */
+        byte[] array() {
+            return buf;
+        }
+
+        /**
+         * No-op. Serializers close their output stream.
+         */
+        @Override
+        public void close() {}
+
+        private void recycle() {
+            if (buf.length > MAX_RETAINED_SIZE) {
+                buf = new byte[INITIAL_SIZE];
+            }
+            reset();
+        }
+    }
+}
@@ -1,28 +1,49 @@
 package net.hh.request_dispatcher;
 
+import java.io.OutputStream;
 import java.io.Serializable;
 
 /**
- * Static implementation fo Serializer interface.
+ * Static access to the Serializer implementations of the codecs.
  *
  * Created by hartmann on 4/2/14.
  */
 class SerializationHelper {
 
-    private static Serializer serializer = new SerializerImplBinary();
+    /**
+     * Serialize object to binary blop using the JAVA codec.
+     */
+    public static byte[] serialize(Serializable object) {
+        return serialize(object, Codec.JAVA);
+    }
 
     /**
      * Serialize object to binary blop.
      *
      * @param object
+     * @param codec     encoding of the blop
      * @return blop     encoded object.
      * @throws org.apache.commons.lang3.SerializationException if serialization fails.
      *                  as this is a rare event and is caused by a programming error,
      *                  this exception is unchecked.
      *
      */
-    public static byte[] serialize(Serializable object) {
-        return serializer.serialize(object);
+    public static byte[] serialize(Serializable object, Codec codec) {
+        return codec.getSerializer().serialize(object);
+    }
+
+    /**
+     * Serialize object and append the blop to out.
+     */
+    public static void serialize(Serializable object, Codec codec, OutputStream out) {
+        codec.getSerializer().serialize(object, out);
+    }
+
+    /**
+     * Create object from binary blop encoded with the JAVA codec.
+     */
+    public static Serializable deserialize(byte[] blop) throws CheckedSerializationException {
+        return deserialize(blop, Codec.JAVA);
     }
 
     /**
@@ -30,11 +51,12 @@ class SerializationHelper {
      * Inverse method to serialize()
      *
      * @param blop
+     * @param codec     encoding of the blop
      * @return object
      */
-    public static Serializable deserialize(byte[] blop) throws CheckedSerializationException {
+    public static Serializable deserialize(byte[] blop, Codec codec) throws CheckedSerializationException {
         try {
-            return (Serializable) serializer.deserialize(blop);
+            return (Serializable) codec.getSerializer().deserialize(blop);
         } catch (ClassCastException e) {
             throw new CheckedSerializationException(e);
         }
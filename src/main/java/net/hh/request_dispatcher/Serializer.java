@@ -2,6 +2,7 @@ package net.hh.request_dispatcher;
 
 import org.apache.commons.lang3.SerializationException;
 
+import java.io.OutputStream;
 import java.io.Serializable;
 
 /**
@@ -24,6 +25,13 @@ interface Serializer {
      */
     public byte[] serialize(Serializable object);
 
+    /**
+     * Like serialize(object), but writes the blop to out.
+     *
+     * @throws SerializationException if serialization fails.
+     */
+    public void serialize(Serializable object, OutputStream out);
+
     /**
      * Create object from binary blop.
      * Inverse method to serialize()
@@ -2,6 +2,7 @@ package net.hh.request_dispatcher;
 
 import org.apache.commons.lang3.SerializationUtils;
 
+import java.io.OutputStream;
 import java.io.Serializable;
 
 /**
@@ -14,6 +15,10 @@ class SerializerImplBinary implements Serializer {
             return SerializationUtils.serialize(o);
     }
 
+    public void serialize(Serializable o, OutputStream out) {
+            SerializationUtils.serialize(o, out);
+    }
+
     public Object deserialize(byte[] data) throws CheckedSerializationException {
         try {
             return SerializationUtils.deserialize(data);
@@ -4,7 +4,11 @@ import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.core.BaseException;
 import org.apache.commons.lang3.SerializationException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
 
 /**
  * Warpper for XStream serialization
@@ -24,6 +28,19 @@ class SerializerImplXml implements Serializer {
         }
     }
 
+    public void serialize(Serializable o, OutputStream out) {
+        try {
+            // platform encoding, like getBytes() above
+            Writer writer = new OutputStreamWriter(out);
+            xStream.toXML(o, writer);
+            writer.flush();
+        } catch (BaseException e) {
+            throw new SerializationException(e);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
     public Object deserialize(byte[] data) throws CheckedSerializationException {
         try {
             return xStream.fromXML(new String(data));
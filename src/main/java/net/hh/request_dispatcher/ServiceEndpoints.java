@@ -0,0 +1,164 @@
+package net.hh.request_dispatcher;
+
+import java.util.List;
+
+/**
+ * Endpoints of a registered service. Each endpoint has its own adapter and socket.
+ *
+ * select() picks the endpoint with the fewest pending callbacks, so slow or
+ * overloaded workers receive less requests. Ties are broken round robin.
+ *
+ * An endpoint is ejected for EJECTION_MS after EJECT_AFTER_FAILURES consecutive
+ * errors or timeouts. Afterwards it receives requests again, and a single further
+ * failure ejects it for another period. If all endpoints are ejected, the
+ * least loaded one is selected anyway.
+ *
+ * select() must only be called by the thread that owns the adapters.
+ * Configuration is applied to all endpoints.
+ */
+class ServiceEndpoints {
+
+    static final int EJECT_AFTER_FAILURES = 3;
+    static final int EJECTION_MS = 1000;
+
+    private final ZmqAdapterAsync[] adapters;
+
+    private int nextStart = 0; // round robin among equally loaded endpoints
+
+    private volatile HedgePolicy hedgePolicy = null;
+    private volatile ReplyCache replyCache = null;
+    private volatile InFlightRequests inFlightRequests = null;
+    private volatile Backpressure backpressure = null;
+    private volatile CircuitBreaker circuitBreaker = null;
+
+    public ServiceEndpoints(List<ZmqAdapterAsync> adapters) {
+        if (adapters.isEmpty()) throw new IllegalArgumentException("No endpoints.");
+        this.adapters = adapters.toArray(new ZmqAdapterAsync[adapters.size()]);
+    }
+
+    /**
+     * @return adapter of the endpoint, the next request is sent to.
+     */
+    public ZmqAdapterAsync select() {
+        return select(null);
+    }
+
+    /**
+     * @param exclude   adapter that is only selected, if it is the only endpoint. null for none.
+     * @return adapter of the endpoint, the next request is sent to.
+     */
+    public ZmqAdapterAsync select(ZmqAdapterAsync exclude) {
+        if (adapters.length == 1) return adapters[0];
+
+        long now = System.currentTimeMillis();
+        int start = nextStart;
+        nextStart = (nextStart + 1) % adapters.length;
+
+        ZmqAdapterAsync best = null;
+        ZmqAdapterAsync bestEjected = null;
+
+        for (int i = 0; i < adapters.length; i++) {
+            ZmqAdapterAsync adapter = adapters[(start + i) % adapters.length];
+            if (adapter == exclude) continue;
+            if (isEjected(adapter, now)) {
+                if (bestEjected == null || adapter.getPendingCount() < bestEjected.getPendingCount()) {
+                    bestEjected = adapter;
+                }
+            } else if (best == null || adapter.getPendingCount() < best.getPendingCount()) {
+                best = adapter;
+            }
+        }
+
+        return best != null ? best : bestEjected;
+    }
+
+    static boolean isEjected(ZmqAdapterAsync adapter, long now) {
+        return adapter.getConsecutiveFailures() >= EJECT_AFTER_FAILURES
+                && now - adapter.getLastFailureTime() < EJECTION_MS;
+    }
+
+    public ZmqAdapterAsync[] getAdapters() {
+        return adapters;
+    }
+
+    // CONFIGURATION //
+
+    public int getDefaultTimeout() {
+        return adapters[0].getDefaultTimeout();
+    }
+
+    public int getProtocolVersion() {
+        return adapters[0].getProtocolVersion();
+    }
+
+    public void setTracing(Tracing tracing) {
+        for (ZmqAdapterAsync adapter : adapters) {
+            adapter.setTracing(tracing);
+        }
+    }
+
+    public void setProtocolVersion(int protocolVersion) {
+        for (ZmqAdapterAsync adapter : adapters) {
+            adapter.setProtocolVersion(protocolVersion);
+        }
+    }
+
+    public Codec getCodec() {
+        return adapters[0].getCodec();
+    }
+
+    /**
+     * @return null if requests are not hedged
+     */
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * @return null if replies are not cached
+     */
+    public ReplyCache getReplyCache() {
+        return replyCache;
+    }
+
+    public void setReplyCache(ReplyCache replyCache) {
+        this.replyCache = replyCache;
+    }
+
+    /**
+     * @return null if equal requests are not coalesced
+     */
+    public InFlightRequests getInFlightRequests() {
+        return inFlightRequests;
+    }
+
+    public void setInFlightRequests(InFlightRequests inFlightRequests) {
+        this.inFlightRequests = inFlightRequests;
+    }
+
+    /**
+     * @return null if requests in flight are not bounded
+     */
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public void setBackpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * @return null if no breaker is set
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+}
@@ -0,0 +1,111 @@
+package net.hh.request_dispatcher;
+
+import org.apache.log4j.Logger;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a blocking RequestHandler on a thread per request, so that a ZmqWorker keeps many
+ * blocking requests in flight. See ZmqWorkerProxy.addThreadPerRequest().
+ *
+ * The threads are virtual threads if the JVM supports them (Java 21+). They are looked up
+ * by reflection, since the library is built for Java 8. Otherwise a pool of at most
+ * PLATFORM_THREADS daemon platform threads is used, further requests wait for a thread.
+ *
+ * Not serializable, although AsyncRequestHandler is: the executor is owned and shut down by
+ * the ZmqWorkerProxy, so a copy could not run requests. Serializing it fails fast.
+ */
+class ThreadPerRequestHandler<RequestType extends Serializable, ReplyType extends Serializable>
+        implements AsyncRequestHandler<RequestType, ReplyType> {
+
+    private static final Logger log = Logger.getLogger(ThreadPerRequestHandler.class);
+
+    /**
+     * Max. platform threads per ZmqWorkerProxy, if virtual threads are not available.
+     * Also the default of requests in flight per worker then.
+     */
+    static final int PLATFORM_THREADS = 256;
+
+    private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory(); // null if not available
+
+    private final RequestHandler<RequestType, ReplyType> handler;
+    private final Executor executor;
+
+    ThreadPerRequestHandler(RequestHandler<RequestType, ReplyType> handler, Executor executor) {
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<ReplyType> handleRequest(final RequestType request) {
+        final CompletableFuture<ReplyType> reply = new CompletableFuture<ReplyType>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reply.complete(handler.handleRequest(request));
+                } catch (Throwable e) {
+                    // an unsettled future would stay in flight forever
+                    reply.completeExceptionally(e);
+                }
+            }
+        });
+        return reply;
+    }
+
+    private static Method virtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return requests in flight per worker, if not given. ZmqWorker.DEFAULT_MAX_IN_FLIGHT
+     *         on virtual threads, PLATFORM_THREADS otherwise.
+     */
+    static int defaultMaxInFlight() {
+        return VIRTUAL_EXECUTOR != null ? ZmqWorker.DEFAULT_MAX_IN_FLIGHT : PLATFORM_THREADS;
+    }
+
+    /**
+     * @return executor with a new virtual thread per task, or a pool of up to PLATFORM_THREADS
+     *         platform threads if virtual threads are not available.
+     */
+    static ExecutorService newExecutor() {
+        if (VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Cannot create virtual thread executor.", e);
+            }
+        }
+        log.warn("Virtual threads not available. Running requests on up to " + PLATFORM_THREADS +
+                " platform threads, further requests wait for a thread.");
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(PLATFORM_THREADS, PLATFORM_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ZmqRequest-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,189 @@
+package net.hh.request_dispatcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timer wheel for deadlines of pending callbacks.
+ *
+ * Time is measured in ticks of 1ms on the monotonic System.nanoTime() clock.
+ * The wheel consists of LEVELS wheels with WHEEL_SIZE slots each. A slot on level l
+ * covers WHEEL_SIZE^l ticks. Deadlines are inserted into the lowest level that can
+ * hold them and cascade down one level whenever the level below wraps around.
+ * Adding a deadline is O(1), expiry is O(1) per elapsed tick and expired entry.
+ *
+ * Entries are not removed when a reply arrives. They only hold adapter and callbackId,
+ * not the callback, so settled requests are not kept reachable until their deadline.
+ * On expiry the callback is removed from its adapter, and onTimeout() is only called
+ * if it was still pending. Tasks added with schedule() are run on expiry.
+ *
+ * Not thread safe. Accessed by the thread that owns the adapters.
+ */
+class TimerWheel {
+
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;   // 2^32 ticks ~ 49 days
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long startNanos = System.nanoTime();
+
+    // singly linked lists of entries
+    private final Entry[][] wheels = new Entry[LEVELS][WHEEL_SIZE];
+
+    private long currentTick = 0;   // next tick to be processed
+    private int size = 0;
+
+    /**
+     * @param timeout       in ms.
+     * @param adapter       the callback is registered at
+     * @param callbackId    as returned by adapter.execute(). onTimeout() of its callback is called on expiry.
+     */
+    public void add(int timeout, ZmqAdapterAsync adapter, int callbackId) {
+        // a tick is processed after it has fully elapsed, so deadlines never expire early.
+        long deadlineTick = tickOf(System.nanoTime()) + Math.max(timeout, 0);
+        insert(new Entry(deadlineTick, adapter, callbackId, null));
+        size++;
+    }
+
+    /**
+     * @param delay     in ms.
+     * @param task      run on expiry
+     */
+    public void schedule(int delay, Runnable task) {
+        long deadlineTick = tickOf(System.nanoTime()) + Math.max(delay, 0);
+        insert(new Entry(deadlineTick, null, -1, task));
+        size++;
+    }
+
+    /**
+     * @return time until next deadline in ms.
+     *         Might be earlier than the next deadline, when entries need to be cascaded.
+     *         -1 if no deadline is set.
+     */
+    public int timeLeft() {
+        if (size == 0) return -1;
+
+        long nowTick = tickOf(System.nanoTime());
+        if (nowTick > currentTick) return 0;    // elapsed ticks need processing
+
+        // The entries of tick t are processed when nowTick > t.
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            long tick = currentTick + i;
+            if (i > 0 && (tick & WHEEL_MASK) == 0) {
+                // higher levels cascade, when tick becomes the current tick
+                return (int) (tick - nowTick);
+            }
+            if (wheels[0][(int) (tick & WHEEL_MASK)] != null) {
+                return (int) (tick + 1 - nowTick);
+            }
+        }
+        return (int) (currentTick + WHEEL_SIZE - nowTick);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Time out all callbacks whose deadline has passed.
+     *
+     * @return number of expired deadlines. Including those of callbacks, that were not pending anymore.
+     */
+    public int expire() {
+        long nowTick = tickOf(System.nanoTime());
+
+        if (size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return 0;
+        }
+
+        int count = 0;
+        while (currentTick < nowTick && size > 0) {
+            int slot = (int) (currentTick & WHEEL_MASK);
+            Entry entry = wheels[0][slot];
+            wheels[0][slot] = null;
+
+            while (entry != null) {
+                Entry next = entry.next;
+                size--;
+                count++;
+                if (entry.task != null) {
+                    entry.task.run();
+                } else {
+                    Callback callback = entry.adapter.expire(entry.callbackId);
+                    if (callback != null) callback.timeout();
+                }
+                entry = next;
+            }
+
+            currentTick++;
+            cascade();
+        }
+
+        if (size == 0) currentTick = Math.max(currentTick, nowTick);
+        return count;
+    }
+
+    /**
+     * Move entries of higher levels down, when the level below wrapped around.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            long levelTick = currentTick >>> (WHEEL_BITS * (level - 1));
+            if ((levelTick & WHEEL_MASK) != 0) return;
+
+            int slot = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            Entry entry = wheels[level][slot];
+            wheels[level][slot] = null;
+
+            while (entry != null) {
+                Entry next = entry.next;
+                insert(entry);
+                entry = next;
+            }
+        }
+    }
+
+    private void insert(Entry entry) {
+        long delta = entry.deadlineTick - currentTick;
+        if (delta < 0) {
+            entry.deadlineTick = currentTick;
+            delta = 0;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        if (level == LEVELS - 1 && delta >= (1L << (WHEEL_BITS * LEVELS))) {
+            // beyond the range of the wheel. park in last slot and re-cascade later.
+            entry.deadlineTick = currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1;
+        }
+
+        int slot = (int) ((entry.deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        entry.next = wheels[level][slot];
+        wheels[level][slot] = entry;
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - startNanos) / TICK_NANOS;
+    }
+
+    private static class Entry {
+        long deadlineTick;
+        final ZmqAdapterAsync adapter;
+        final int callbackId;
+        final Runnable task;
+
+        Entry next;
+
+        Entry(long deadlineTick, ZmqAdapterAsync adapter, int callbackId, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.adapter = adapter;
+            this.callbackId = callbackId;
+            this.task = task;
+        }
+    }
+}
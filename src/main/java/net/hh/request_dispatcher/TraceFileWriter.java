@@ -0,0 +1,71 @@
+package net.hh.request_dispatcher;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes traces as CSV lines to a local file, durations in us.
+ *
+ * A line is flushed per trace, so the file is complete when the process dies. Meant for
+ * low sample rates. Thread safe.
+ */
+public class TraceFileWriter implements TraceSink, Closeable {
+
+    private final Writer writer;
+    private boolean failed = false;
+
+    /**
+     * @param file  is appended to. A header line is written, if the file is new.
+     */
+    public TraceFileWriter(File file) throws IOException {
+        boolean isNew = !file.exists() || file.length() == 0;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charset.forName("UTF-8")));
+
+        if (isNew) {
+            StringBuilder header = new StringBuilder("timestamp,endpoint,requestTypeId,total");
+            for (RequestTrace.Stage stage : RequestTrace.Stage.values()) {
+                header.append(',').append(stage.name().toLowerCase());
+            }
+            writer.write(header.append('\n').toString());
+            writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void accept(RequestTrace trace) {
+        if (failed) return;
+
+        StringBuilder line = new StringBuilder();
+        line.append(System.currentTimeMillis())
+                .append(',').append(trace.getEndpoint())
+                .append(',').append(trace.getRequestTypeId())
+                .append(',').append(micros(trace.getTotalNanos()));
+        for (RequestTrace.Stage stage : RequestTrace.Stage.values()) {
+            line.append(',').append(micros(trace.getNanos(stage)));
+        }
+
+        try {
+            writer.write(line.append('\n').toString());
+            writer.flush();
+        } catch (IOException e) {
+            failed = true; // do not fail every request of the service
+            throw new IllegalStateException("Cannot write trace", e);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,11 @@
+package net.hh.request_dispatcher;
+
+/**
+ * Receives the traces of sampled requests. See Tracing.
+ *
+ * Called on the thread that owns the sockets of the service, so implementations must not block for long.
+ */
+public interface TraceSink {
+
+    void accept(RequestTrace trace);
+}
@@ -0,0 +1,50 @@
+package net.hh.request_dispatcher;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples requests of a service for per stage tracing. See Dispatcher.setTracing().
+ *
+ * Only asynchronous and synchronous requests with a reply are traced. One way requests
+ * and requests in protocol version 1 are not.
+ */
+public class Tracing {
+
+    private static final Logger log = Logger.getLogger(Tracing.class);
+
+    private final double sampleRate;
+    private final TraceSink sink;
+
+    /**
+     * @param sampleRate    share of traced requests in [0, 1]. e.g. 0.001
+     * @param sink          receives the traces
+     */
+    public Tracing(double sampleRate, TraceSink sink) {
+        if (sampleRate < 0 || sampleRate > 1) throw new IllegalArgumentException("Sample rate " + sampleRate);
+        if (sink == null) throw new IllegalArgumentException("No sink.");
+
+        this.sampleRate = sampleRate;
+        this.sink = sink;
+    }
+
+    /**
+     * @return true if the next request is traced
+     */
+    boolean sample() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    void report(RequestTrace trace) {
+        try {
+            sink.accept(trace);
+        } catch (RuntimeException e) {
+            log.warn("Trace sink failed", e);
+        }
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+}
@@ -0,0 +1,194 @@
+package net.hh.request_dispatcher;
+
+/**
+ * Layout of the fixed-width header frame of transfer protocol v2.
+ *
+ * All fields are little-endian:
+ *
+ * offset  size  field
+ * 0       1     version          VERSION_2
+ * 1       1     flags            FLAG_ERROR | FLAG_ONE_WAY | FLAG_BATCH | FLAG_TRACE
+ * 2       1     codec            payload encoding, Codec.getId()
+ * 3       1     reserved         0
+ * 4       4     callbackId       -1 for one way requests
+ * 8       4     requestTypeId    hash of the request class name
+ * 12      8     budget           ms left until the client times out, 0 if none
+ * 20      4     reserved         0
+ * 24      72    trace stamps     only if FLAG_TRACE is set. System.nanoTime() per RequestTrace stamp, 0 if none.
+ *
+ * The deadline of a request is transmitted relative, so the clocks of client and worker
+ * need not be in sync. The recipient turns it into a deadline of its own clock on arrival
+ * (see budgetOf(), deadlineOf()). Time in transit is not accounted.
+ *
+ * Traced headers are TRACED_SIZE long and are only understood by peers that support tracing.
+ *
+ * Protocol v1 sends the callbackId as big-endian two's complement of
+ * minimal length (BigInteger.toByteArray()) in place of the header. Such a
+ * frame is at most 4 bytes long, so both versions can be told apart by size.
+ *
+ * Fields are read from and written to byte arrays directly, without allocation.
+ * The header alone is sufficient to route, drop or match a message to its callback,
+ * the payload is only deserialized by the final recipient.
+ */
+final class TransferHeader {
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
+    public static final int SIZE = 24;
+    public static final int TRACED_SIZE = SIZE + 8 * RequestTrace.STAMPS;
+
+    public static final long NO_DEADLINE = 0;
+
+    public static final int FLAG_ERROR = 1;       // payload is a RequestException
+    public static final int FLAG_ONE_WAY = 2;     // request without reply. callbackId is -1
+    public static final int FLAG_BATCH = 4;       // payload is an ArrayList of requests or replies
+    public static final int FLAG_TRACE = 8;       // header is followed by trace stamps
+
+    private static final int OFFSET_VERSION = 0;
+    private static final int OFFSET_FLAGS = 1;
+    private static final int OFFSET_CODEC = 2;
+    private static final int OFFSET_CALLBACK_ID = 4;
+    private static final int OFFSET_REQUEST_TYPE_ID = 8;
+    private static final int OFFSET_BUDGET = 12;
+
+    private TransferHeader() {}
+
+    /**
+     * @return VERSION_1 or VERSION_2
+     * @throws TransferHelper.ProtocolException if frame is neither a v1 callback frame nor a v2 header
+     */
+    public static int versionOf(byte[] frame) throws TransferHelper.ProtocolException {
+        if ((frame.length == SIZE || frame.length == TRACED_SIZE) && frame[OFFSET_VERSION] == VERSION_2) {
+            return VERSION_2;
+        }
+        if (frame.length >= 1 && frame.length <= 4) {
+            return VERSION_1;
+        }
+        throw new TransferHelper.ProtocolException("Unknown header frame of size " + frame.length);
+    }
+
+    public static byte[] encode(int flags, int codec, int callbackId, int requestTypeId, long budget) {
+        byte[] frame = new byte[SIZE];
+        encode(frame, flags, codec, callbackId, requestTypeId, budget);
+        return frame;
+    }
+
+    /**
+     * Write header into the first SIZE bytes of frame.
+     *
+     * @param budget    see budgetOf()
+     */
+    public static void encode(byte[] frame, int flags, int codec, int callbackId, int requestTypeId, long budget) {
+        frame[OFFSET_VERSION] = (byte) VERSION_2;
+        frame[OFFSET_FLAGS] = (byte) flags;
+        frame[OFFSET_CODEC] = (byte) codec;
+        putInt(frame, OFFSET_CALLBACK_ID, callbackId);
+        putInt(frame, OFFSET_REQUEST_TYPE_ID, requestTypeId);
+        putLong(frame, OFFSET_BUDGET, budget);
+    }
+
+    /**
+     * Write trace stamps behind the header. frame must be TRACED_SIZE long, flags must contain FLAG_TRACE.
+     */
+    public static void encodeTrace(byte[] frame, long[] trace) {
+        for (int i = 0; i < RequestTrace.STAMPS; i++) {
+            putLong(frame, SIZE + 8 * i, trace[i]);
+        }
+    }
+
+    /**
+     * @return trace stamps. null if the message is not traced.
+     */
+    public static long[] trace(byte[] frame) {
+        if (frame.length != TRACED_SIZE || (flags(frame) & FLAG_TRACE) == 0) return null;
+
+        long[] trace = new long[RequestTrace.STAMPS];
+        for (int i = 0; i < RequestTrace.STAMPS; i++) {
+            trace[i] = getLong(frame, SIZE + 8 * i);
+        }
+        return trace;
+    }
+
+    public static int flags(byte[] frame) {
+        return frame[OFFSET_FLAGS] & 0xFF;
+    }
+
+    public static int codec(byte[] frame) {
+        return frame[OFFSET_CODEC] & 0xFF;
+    }
+
+    public static int callbackId(byte[] frame) {
+        return getInt(frame, OFFSET_CALLBACK_ID);
+    }
+
+    public static int requestTypeId(byte[] frame) {
+        return getInt(frame, OFFSET_REQUEST_TYPE_ID);
+    }
+
+    public static long budget(byte[] frame) {
+        return getLong(frame, OFFSET_BUDGET);
+    }
+
+    /**
+     * @param deadline  epoch ms of the local clock or NO_DEADLINE
+     * @return ms left until deadline, at least 1 so it is not taken for NO_DEADLINE.
+     *         NO_DEADLINE if there is none.
+     */
+    public static long budgetOf(long deadline) {
+        if (deadline == NO_DEADLINE) return NO_DEADLINE;
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * @param budget    as received
+     * @return epoch ms of the local clock or NO_DEADLINE
+     */
+    public static long deadlineOf(long budget) {
+        if (budget == NO_DEADLINE) return NO_DEADLINE;
+        return System.currentTimeMillis() + budget;
+    }
+
+    /**
+     * @param object    payload or null if unknown
+     * @return flags describing a message with the given callbackId and payload
+     */
+    public static int flagsOf(int callbackId, Object object) {
+        int flags = 0;
+        if (callbackId == -1) flags |= FLAG_ONE_WAY;
+        if (object instanceof RequestException) flags |= FLAG_ERROR;
+        return flags;
+    }
+
+    /**
+     * @return id of the request type, that is stable across JVMs.
+     */
+    public static int requestTypeIdOf(Class<?> requestClass) {
+        return requestClass.getName().hashCode();
+    }
+
+    // LITTLE ENDIAN ACCESS //
+
+    private static void putInt(byte[] frame, int offset, int value) {
+        frame[offset]     = (byte) value;
+        frame[offset + 1] = (byte) (value >>> 8);
+        frame[offset + 2] = (byte) (value >>> 16);
+        frame[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void putLong(byte[] frame, int offset, long value) {
+        putInt(frame, offset, (int) value);
+        putInt(frame, offset + 4, (int) (value >>> 32));
+    }
+
+    private static int getInt(byte[] frame, int offset) {
+        return (frame[offset] & 0xFF)
+                | (frame[offset + 1] & 0xFF) << 8
+                | (frame[offset + 2] & 0xFF) << 16
+                | (frame[offset + 3] & 0xFF) << 24;
+    }
+
+    private static long getLong(byte[] frame, int offset) {
+        return (getInt(frame, offset) & 0xFFFFFFFFL) | ((long) getInt(frame, offset + 4) << 32);
+    }
+}
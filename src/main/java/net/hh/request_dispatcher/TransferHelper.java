@@ -1,11 +1,13 @@
 package net.hh.request_dispatcher;
 
 import org.apache.log4j.Logger;
+import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQException;
 import org.zeromq.ZMsg;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.math.BigInteger;
 
 /**
@@ -17,6 +19,9 @@ class TransferHelper {
 
     private static final Logger log = Logger.getLogger(TransferHelper.class);
 
+    private static final byte[] EMPTY = new byte[0];
+    private static final ZFrame[] NO_ENVELOPE = new ZFrame[0];
+
     public static void sendMessage(ZMQ.Socket socket, TransferWrapper transferWrapper) {
         try {
             boolean rc = transferWrapper.toMessage().send(socket);
@@ -31,6 +36,115 @@ class TransferHelper {
         }
     }
 
+    /**
+     * Serialize and send request without building a TransferWrapper.
+     *
+     * @param deadline  epoch ms or TransferHeader.NO_DEADLINE
+     * @return bytes of the serialized request
+     */
+    public static int sendRequest(ZMQ.Socket socket, Serializable request, int callbackId, long deadline,
+                                  int version, Codec codec) {
+        return sendRequest(socket, request, callbackId, deadline, version, codec, 0);
+    }
+
+    /**
+     * @param sendFlags ZMQ.NOBLOCK to fail instead of blocking, when the high water mark is reached.
+     */
+    public static int sendRequest(ZMQ.Socket socket, Serializable request, int callbackId, long deadline,
+                                  int version, Codec codec, int sendFlags) {
+        return sendRequest(socket, request, callbackId, deadline, version, codec, sendFlags, null);
+    }
+
+    /**
+     * @param trace     stamps of a traced request, or null. CLIENT_SERIALIZED is stamped.
+     */
+    public static int sendRequest(ZMQ.Socket socket, Serializable request, int callbackId, long deadline,
+                                  int version, Codec codec, int sendFlags, long[] trace) {
+        Class<?> type = request instanceof Batch ? ((Batch) request).getItemType() : request.getClass();
+        return send(socket, NO_ENVELOPE, version, codec, callbackId, TransferHeader.requestTypeIdOf(type), deadline,
+                request, sendFlags, trace, RequestTrace.CLIENT_SERIALIZED);
+    }
+
+    /**
+     * Serialize and send reply to request in the protocol version of the request.
+     * Trace stamps of the request are returned with REPLY_SERIALIZED stamped.
+     *
+     * @param codec     of the reply. Replies to VERSION_1 requests are always encoded with Codec.JAVA.
+     */
+    public static void sendReply(ZMQ.Socket socket, TransferWrapperRaw request, Serializable reply, Codec codec) {
+        if (request.getVersion() == TransferHeader.VERSION_1) codec = Codec.JAVA;
+        send(socket, request.getEnvelope(), request.getVersion(), codec, request.getCallbackId(),
+                request.getRequestTypeId(), TransferHeader.NO_DEADLINE, reply, 0, request.getTrace(),
+                RequestTrace.REPLY_SERIALIZED);
+    }
+
+    /**
+     * Writes the frames of TransferWrapperRaw.toMessage() directly to the socket.
+     *
+     * Payload and header are serialized into thread local buffers, which
+     * ZMQ copies into its messages. At steady state only the serializer allocates.
+     *
+     * @param object    payload. The items of a Batch are sent as ArrayList with FLAG_BATCH set.
+     * @param sendFlags added to the flags of all frames
+     * @param trace     stamps of a traced message, or null. Ignored in VERSION_1.
+     * @param serializedStamp   index stamped into trace after serialization
+     * @return bytes of the payload frame
+     */
+    private static int send(ZMQ.Socket socket, ZFrame[] envelope, int version, Codec codec, int callbackId,
+                             int requestTypeId, long deadline, Serializable object, int sendFlags,
+                             long[] trace, int serializedStamp) {
+        int flags = TransferHeader.flagsOf(callbackId, object);
+        if (object instanceof Batch) {
+            if (version == TransferHeader.VERSION_1) {
+                throw new IllegalArgumentException("Protocol version 1 does not support batches.");
+            }
+            flags |= TransferHeader.FLAG_BATCH;
+            object = ((Batch) object).getItems();
+        }
+
+        long budget = TransferHeader.budgetOf(deadline);
+
+        SendBuffers buffers = SendBuffers.acquire();
+        try {
+            // serialize first. Nothing is sent, if serialization fails.
+            SerializationHelper.serialize(object, codec, buffers.payload);
+
+            for (int i = envelope.length - 1; i >= 0; i--) {
+                checkSent(socket.send(envelope[i].getData(), ZMQ.SNDMORE | sendFlags));
+            }
+            checkSent(socket.send(EMPTY, ZMQ.SNDMORE | sendFlags));
+
+            if (version == TransferHeader.VERSION_2 && trace != null) {
+                trace[serializedStamp] = System.nanoTime();
+                TransferHeader.encode(buffers.header, flags | TransferHeader.FLAG_TRACE, codec.getId(), callbackId,
+                        requestTypeId, budget);
+                TransferHeader.encodeTrace(buffers.header, trace);
+                checkSent(socket.send(buffers.header, 0, TransferHeader.TRACED_SIZE, ZMQ.SNDMORE | sendFlags));
+            } else if (version == TransferHeader.VERSION_2) {
+                TransferHeader.encode(buffers.header, flags, codec.getId(), callbackId, requestTypeId, budget);
+                checkSent(socket.send(buffers.header, 0, TransferHeader.SIZE, ZMQ.SNDMORE | sendFlags));
+            } else {
+                checkSent(socket.send(int2bytes(callbackId), ZMQ.SNDMORE | sendFlags));
+            }
+
+            checkSent(socket.send(buffers.payload.array(), 0, buffers.payload.size(), sendFlags));
+            return buffers.payload.size();
+        } catch (ZMQException e) {
+            if (e.getErrorCode() == ZMQ.Error.ETERM.getCode()){
+                log.debug("Received ETERM.");
+                throw new ZmqEtermException(e);
+            } else {
+                throw e;
+            }
+        } finally {
+            buffers.release();
+        }
+    }
+
+    private static void checkSent(boolean rc) {
+        if (!rc) throw new ZMQException.IOException(new IOException("Error sending message"));
+    }
+
     /**
      * Receive and parse multipart message.
      *
@@ -7,42 +7,99 @@ import java.io.Serializable;
 
 /**
  * Extends TransferWrapperRaw by serialization functionality.
+ *
+ * Received payloads are deserialized lazily on the first call to getObject().
+ * Header fields can be inspected without paying for deserialization.
  */
 public final class TransferWrapper extends TransferWrapperRaw {
 
-    private final Serializable object;
+    private Serializable object;
+    private boolean decoded;
 
-    public TransferWrapper(Serializable object, Integer callbackId) throws CheckedSerializationException {
+    public TransferWrapper(Serializable object, int callbackId) throws CheckedSerializationException {
         this(object, callbackId, new ZFrame[0]);
     }
 
+    /**
+     * Request in the given protocol version and codec.
+     *
+     * @param deadline  epoch ms or TransferHeader.NO_DEADLINE
+     */
+    TransferWrapper(Serializable object, int callbackId, long deadline, int version, Codec codec) {
+        super(version, codec, TransferHeader.flagsOf(callbackId, object), SerializationHelper.serialize(object, codec),
+                callbackId, TransferHeader.requestTypeIdOf(object.getClass()), deadline, new ZFrame[0]);
+        this.object = object;
+        this.decoded = true;
+    }
+
+    /**
+     * Parses the frames. The payload is not deserialized.
+     */
     public TransferWrapper(ZMsg message) throws TransferHelper.ProtocolException {
         super(message);
-        try {
-            this.object = SerializationHelper.deserialize(payload);
-        } catch (CheckedSerializationException e) {
-            throw new TransferHelper.ProtocolException(e);
-        }
+        this.decoded = false;
+    }
+
+    TransferWrapper(Serializable object, int callbackId, ZFrame[] envelope)  {
+        super(TransferHeader.VERSION_2, Codec.JAVA, TransferHeader.flagsOf(callbackId, object),
+                SerializationHelper.serialize(object), callbackId, 0, TransferHeader.NO_DEADLINE, envelope);
+        this.object = object;
+        this.decoded = true;
     }
 
-    TransferWrapper(Serializable object, Integer callbackId, ZFrame[] envelope)  {
-        super(SerializationHelper.serialize(object), callbackId, envelope);
+    private TransferWrapper(TransferWrapper request, Serializable object, Codec codec) {
+        super(request.getVersion(), codec, TransferHeader.flagsOf(request.getCallbackId(), object),
+                SerializationHelper.serialize(object, codec), request.getCallbackId(),
+                request.getRequestTypeId(), TransferHeader.NO_DEADLINE, request.getEnvelope(), request.getTrace());
         this.object = object;
+        this.decoded = true;
     }
 
-    public Serializable getObject() {
+    /**
+     * Deserializes the payload on first access.
+     *
+     * @throws TransferHelper.ProtocolException if the payload can not be deserialized
+     */
+    public Serializable getObject() throws TransferHelper.ProtocolException {
+        if (!decoded) {
+            try {
+                object = SerializationHelper.deserialize(payload, getCodec());
+            } catch (CheckedSerializationException e) {
+                throw new TransferHelper.ProtocolException(e);
+            }
+            decoded = true;
+        }
         return object;
     }
 
+    /**
+     * Read from the header. Messages of protocol version 1 do not carry the error flag
+     * and are deserialized to answer this. Payloads that fail to deserialize are no errors.
+     */
     public boolean isError() {
-        return object instanceof RequestException;
+        if (getVersion() == TransferHeader.VERSION_2) {
+            return (getFlags() & TransferHeader.FLAG_ERROR) != 0;
+        }
+        try {
+            return getObject() instanceof RequestException;
+        } catch (TransferHelper.ProtocolException e) {
+            return false;
+        }
     }
 
+    /**
+     * Reply is sent in the protocol version and codec of the request.
+     */
     public TransferWrapper constructReply(Serializable object) {
-        return new TransferWrapper(object, getCallbackId(), getEnvelope());
+        return new TransferWrapper(this, object, getCodec());
     }
 
-    public boolean isOneWayRequest() {
-        return getCallbackId() == -1;
+    /**
+     * Reply is sent in the protocol version of the request.
+     * Falls back to the codec of the request, if codec is not supported by that version.
+     */
+    public TransferWrapper constructReply(Serializable object, Codec codec) {
+        if (getVersion() == TransferHeader.VERSION_1) codec = Codec.JAVA;
+        return new TransferWrapper(this, object, codec);
     }
 }
@@ -11,13 +11,49 @@ import org.zeromq.ZMsg;
  */
 class TransferWrapperRaw {
     protected final byte[] payload;
-    private final Integer  callbackId;
+    private final int      version;
+    private final Codec    codec;
+    private final int      flags;
+    private final int      callbackId;
+    private final int      requestTypeId;
+    private final long     deadline;
     private final ZFrame[] envelope;
+    private final long[]   trace;       // null if not traced. See RequestTrace.
 
-    public TransferWrapperRaw(byte[] payload, Integer callbackId, ZFrame[] envelope) {
+    public TransferWrapperRaw(byte[] payload, int callbackId, ZFrame[] envelope) {
+        this(TransferHeader.VERSION_2, Codec.JAVA, TransferHeader.flagsOf(callbackId, null), payload, callbackId,
+                0, TransferHeader.NO_DEADLINE, envelope);
+    }
+
+    public TransferWrapperRaw(int version, Codec codec, int flags, byte[] payload, int callbackId,
+                              int requestTypeId, long deadline, ZFrame[] envelope) {
+        this(version, codec, flags, payload, callbackId, requestTypeId, deadline, envelope, null);
+    }
+
+    /**
+     * @param version       of the transfer protocol. Fields not supported by VERSION_1 are not transmitted.
+     * @param codec         payload is encoded with. VERSION_1 only supports Codec.JAVA.
+     * @param flags         see TransferHeader.flagsOf()
+     * @param deadline      epoch ms or TransferHeader.NO_DEADLINE
+     * @param trace         stamps of a traced message, or null. Only transmitted in VERSION_2.
+     */
+    public TransferWrapperRaw(int version, Codec codec, int flags, byte[] payload, int callbackId,
+                              int requestTypeId, long deadline, ZFrame[] envelope, long[] trace) {
+        if (version != TransferHeader.VERSION_1 && version != TransferHeader.VERSION_2) {
+            throw new IllegalArgumentException("Unknown protocol version " + version);
+        }
+        if (version == TransferHeader.VERSION_1 && codec != Codec.JAVA) {
+            throw new IllegalArgumentException("Protocol version 1 does not support codec " + codec);
+        }
+        this.version = version;
+        this.codec = codec;
+        this.flags = flags;
         this.payload = payload;
         this.callbackId = callbackId;
+        this.requestTypeId = requestTypeId;
+        this.deadline = deadline;
         this.envelope = envelope;
+        this.trace = version == TransferHeader.VERSION_2 ? trace : null;
     }
 
     /**
@@ -27,7 +63,7 @@ class TransferWrapperRaw {
      * ...
      * N-4     envelope frame         -> envelope[0]
      * N-3     Empty Delimiter Frame
-     * N-2     Serialized callback ID -> callbackId
+     * N-2     Header                 -> see TransferHeader (v2) or serialized callback ID (v1)
      * N-1     Serialized payload     -> payload
      *
      * @param message input
@@ -42,14 +78,34 @@ class TransferWrapperRaw {
         }
 
         ZFrame payloadFrame = message.pollLast();
-        ZFrame callbackFrame = message.pollLast();
+        ZFrame headerFrame = message.pollLast();
         ZFrame delimiterFrame = message.pollLast();
 
         if (delimiterFrame.size() != 0) {
             throw new TransferHelper.ProtocolException("Delimiter frame not empty.");
         }
 
-        callbackId = TransferHelper.bytes2int(callbackFrame.getData());
+        byte[] header = headerFrame.getData();
+        version = TransferHeader.versionOf(header);
+
+        if (version == TransferHeader.VERSION_2) {
+            codec = Codec.byId(TransferHeader.codec(header));
+            if (codec == null) {
+                throw new TransferHelper.ProtocolException("Unknown codec " + TransferHeader.codec(header));
+            }
+            flags = TransferHeader.flags(header);
+            callbackId = TransferHeader.callbackId(header);
+            requestTypeId = TransferHeader.requestTypeId(header);
+            deadline = TransferHeader.deadlineOf(TransferHeader.budget(header));
+            trace = TransferHeader.trace(header);
+        } else {
+            codec = Codec.JAVA;
+            callbackId = TransferHelper.bytes2int(header);
+            flags = TransferHeader.flagsOf(callbackId, null);   // error flag is not transmitted in v1
+            requestTypeId = 0;
+            deadline = TransferHeader.NO_DEADLINE;
+            trace = null;
+        }
 
         payload = payloadFrame.getData();
 
@@ -70,7 +126,18 @@ class TransferWrapperRaw {
         ZMsg out = new ZMsg();
 
         out.addFirst(payload);
-        out.addFirst(TransferHelper.int2bytes(callbackId));
+        if (version == TransferHeader.VERSION_2 && trace != null) {
+            byte[] header = new byte[TransferHeader.TRACED_SIZE];
+            TransferHeader.encode(header, flags | TransferHeader.FLAG_TRACE, codec.getId(), callbackId,
+                    requestTypeId, TransferHeader.budgetOf(deadline));
+            TransferHeader.encodeTrace(header, trace);
+            out.addFirst(header);
+        } else if (version == TransferHeader.VERSION_2) {
+            out.addFirst(TransferHeader.encode(flags, codec.getId(), callbackId, requestTypeId,
+                    TransferHeader.budgetOf(deadline)));
+        } else {
+            out.addFirst(TransferHelper.int2bytes(callbackId));
+        }
         out.addFirst(new byte[0]);
 
         for (ZFrame f : envelope){
@@ -80,18 +147,78 @@ class TransferWrapperRaw {
         return out;
     }
 
-    public Integer getCallbackId() {
+    /**
+     * @return bytes of the serialized payload
+     */
+    public int getPayloadSize() {
+        return payload.length;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isOneWayRequest() {
+        return (flags & TransferHeader.FLAG_ONE_WAY) != 0;
+    }
+
+    /**
+     * @return true if the payload is an ArrayList of requests or replies. See Batch.
+     */
+    public boolean isBatch() {
+        return (flags & TransferHeader.FLAG_BATCH) != 0;
+    }
+
+    public int getCallbackId() {
         return callbackId;
     }
 
+    public int getRequestTypeId() {
+        return requestTypeId;
+    }
+
+    /**
+     * @return epoch ms of the local clock or TransferHeader.NO_DEADLINE. Received deadlines are converted on arrival.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
     public ZFrame[] getEnvelope() {
         return envelope;
     }
 
+    /**
+     * @return trace stamps. null if the message is not traced.
+     */
+    public long[] getTrace() {
+        return trace;
+    }
+
+    /**
+     * Stamp the current time into a traced message. No-op for other messages.
+     *
+     * @param index     see RequestTrace
+     */
+    public void stamp(int index) {
+        if (trace != null) trace[index] = System.nanoTime();
+    }
+
     @Override
     public String toString() {
         return "TransferWrapperRaw{" +
                 "payload=" + payload +
+                ", version=" + version +
+                ", codec=" + codec +
+                ", flags=" + flags +
                 ", callbackId=" + callbackId +
                 ", envelope.length=" + envelope.length +
                 '}';
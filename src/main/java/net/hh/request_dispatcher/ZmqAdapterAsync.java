@@ -5,7 +5,11 @@ import org.zeromq.ZMQ;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Manages communication with a single service.
@@ -27,13 +31,28 @@ class ZmqAdapterAsync<Request extends Serializable, Reply extends Serializable>
     private final ZMQ.Socket socket;
     private final ZMQ.Poller poller = new ZMQ.Poller(1);
 
-    private final HashMap<Integer, Callback<Reply>> pendingCallbacks = new HashMap<Integer, Callback<Reply>>();
-    private int callbackCounter = 0;
+    private int lingering = 0; // pending callbacks nobody waits for, see linger()
+    private final CallbackTable<Reply> pendingCallbacks = new CallbackTable<Reply>();
+    private final Queue<TransferWrapper> deferredReplies = new ArrayDeque<TransferWrapper>(); // see sendSync()
 
     private final String endpoint; // for debugging
+    private final AdapterMetrics metrics;
 
-    // DIRTY HACK
-    public Callback lastCallback;
+    private int defaultTimeout = -1; // deadline of requests without explicit timeout. Used by Dispatcher.
+
+    private volatile int protocolVersion = TransferHeader.VERSION_2; // set by client threads in REACTOR mode
+
+    private volatile Codec codec = Codec.JAVA;
+
+    private volatile Tracing tracing = null;
+
+    private Queue<Promise> unsentErrors = null; // see setUnsentErrors()
+
+    private long sendFailures = 0;
+
+    // endpoint health, see ServiceEndpoints
+    private int consecutiveFailures = 0;
+    private long lastFailureTime = 0;
 
     /**
      * Return codes for recvAndExec()
@@ -42,6 +61,8 @@ class ZmqAdapterAsync<Request extends Serializable, Reply extends Serializable>
         SUC,            // message received and onSuccess() called
         ERR,            // message received and onError() called
         NO_CALLBACK,    // message received and no callback available
+        INVALID,        // message received and discarded, since it violated the protocol.
+                        // onError() is called, if the message could be matched to a callback.
         NO_MESSAGE      // no message received
     }
 
@@ -52,14 +73,23 @@ class ZmqAdapterAsync<Request extends Serializable, Reply extends Serializable>
         poller.register(socket, ZMQ.Poller.POLLIN);
 
         this.endpoint = "";
+        this.metrics = new AdapterMetrics(endpoint);
     }
 
     public ZmqAdapterAsync(ZMQ.Context ctx, String endpoint) {
+        this(ctx, endpoint, Backpressure.DEFAULT_HIGH_WATER_MARK);
+    }
+
+    /**
+     * @param highWaterMark     max. messages queued on the socket. Sends beyond fail with onError().
+     */
+    public ZmqAdapterAsync(ZMQ.Context ctx, String endpoint, int highWaterMark) {
         this.endpoint = endpoint;
+        this.metrics = new AdapterMetrics(endpoint);
 
         socket = ctx.socket(ZMQ.DEALER);
         socket.setLinger(100);
-        socket.setHWM(1000);
+        socket.setHWM(highWaterMark);
         socket.connect(endpoint);
 
         poller.register(socket, ZMQ.Poller.POLLIN);
@@ -69,23 +99,107 @@ class ZmqAdapterAsync<Request extends Serializable, Reply extends Serializable>
      * Non-blocking asynchronus request execution.
      * @param request   to be sent to the server
      * @param callback  executed on recvAndExec()
+     * @return callbackId   under which the callback is registered. -1 for one way requests.
+     */
+    public int execute(Request request, Callback<Reply> callback) {
+        return execute(request, callback, -1);
+    }
+
+    /**
+     * Like execute(request, callback), but transmits the deadline to the server.
+     * The callback of a request that cannot be sent gets onError(). See setUnsentErrors().
+     *
+     * @param timeout   in ms. -1 for no deadline.
+     * @return callbackId   -1 for one way requests, and requests that could not be sent.
+     */
+    public int execute(Request request, Callback<Reply> callback, int timeout) {
+        return execute(request, callback, timeout, unsentErrors);
+    }
+
+    /**
+     * @param unsentErrors  errors of a request that cannot be sent are queued here. null to call onError() at once.
      */
-    public void execute(Request request, Callback<Reply> callback) {
+    private int execute(Request request, Callback<Reply> callback, int timeout, Queue<Promise> unsentErrors) {
         int callbackId = -1;
 
         if (callback != null) {
-            callbackId = callbackCounter++;
-            pendingCallbacks.put(callbackId, callback);
+            if (pendingCallbacks.isFull()) {
+                // e.g. requests without deadline, whose replies were lost, hold all slots
+                log.error("Cannot send request to " + endpoint + ". " + CallbackTable.MAX_SLOTS
+                        + " callbacks pending.");
+                failUnsent(callback, new IllegalStateException("Too many pending callbacks"), unsentErrors);
+                return -1;
+            }
+            callbackId = pendingCallbacks.put(callback, System.nanoTime());
+        }
+
+        long deadline = timeout < 0 ? TransferHeader.NO_DEADLINE : System.currentTimeMillis() + timeout;
+
+        long[] trace = null;
+        Tracing tracing = this.tracing;
+        if (callback != null && tracing != null && tracing.sample()) {
+            trace = new long[RequestTrace.STAMPS];
+            trace[RequestTrace.CLIENT_SEND] = System.nanoTime();
         }
 
         try {
-            TransferHelper.sendMessage(socket, new TransferWrapper(request, callbackId));
+            int requestBytes = TransferHelper.sendRequest(socket, request, callbackId, deadline, protocolVersion,
+                    codec, ZMQ.NOBLOCK, trace);
+            if (callback != null) {
+                pendingCallbacks.setSize(callbackId, requestBytes);
+                metrics.sent();
+            }
         } catch (TransferHelper.ZmqEtermException e) {
             log.error("ETERM. Closing sockets.");
             close();
-        } catch (IOException e) {
-            log.error(e);
+            if (callback != null && pendingCallbacks.remove(callbackId) != null) {
+                failUnsent(callback, e, unsentErrors);
+            }
+            callbackId = -1;
+        } catch (RuntimeException e) {
+            // high water mark reached or request not serializable
+            log.error("Cannot send request to " + endpoint, e);
+            sendFailures++;
+            recordFailure();
+            if (callback != null && pendingCallbacks.remove(callbackId) != null) {
+                failUnsent(callback, e, unsentErrors);
+            }
+            callbackId = -1;
         }
+
+        return callbackId;
+    }
+
+    /**
+     * Never leave the callback of a request pending, that was not sent.
+     * The callback is not registered anymore.
+     */
+    private void failUnsent(final Callback<Reply> callback, Exception cause, Queue<Promise> unsentErrors) {
+        metrics.unsent();
+
+        final RequestException e = new RequestException("Cannot send request to " + endpoint, cause);
+        if (unsentErrors == null) {
+            callback.error(e);
+            return;
+        }
+        unsentErrors.add(new Promise(new Runnable() {
+            @Override
+            public void run() {
+                callback.error(e);
+            }
+        }));
+    }
+
+    /**
+     * Queue errors of requests that cannot be sent as promises, instead of calling onError()
+     * inside execute(). In CALLER_THREAD mode the Dispatcher keeps them on the next
+     * gatherResults(), like other errors of requests that were not sent.
+     * sendSync() always fails at once.
+     *
+     * @param unsentErrors  null to call onError() at once (default)
+     */
+    void setUnsentErrors(Queue<Promise> unsentErrors) {
+        this.unsentErrors = unsentErrors;
     }
 
 
@@ -93,6 +207,7 @@ class ZmqAdapterAsync<Request extends Serializable, Reply extends Serializable>
 
     /**
      * Receive message on socket and execute corresponding callback.
+     * Replies kept by sendSync() are executed first.
      *
      * @param  flag     passed to ZMQ Socket
      * @return rc       return code. See enum descriptions.
@@ -100,55 +215,347 @@ class ZmqAdapterAsync<Request extends Serializable, Reply extends Serializable>
     public RC recvAndExec(int flag) {
         log.debug("Called recvAndExec() on " + this);
 
-        TransferWrapper reply = null;
-
-        try {
-            reply = TransferHelper.recvMessage(socket, flag);
-            log.debug("Recieved message " + reply);
-        } catch (TransferHelper.ZmqEtermException e) {
-            log.error(e);
-            close();
-            return RC.NO_MESSAGE;
-        } catch (IOException e) {
-            log.error(e);
-            return RC.NO_MESSAGE;
+        TransferWrapper reply = deferredReplies.poll();
+
+        if (reply == null) {
+            try {
+                reply = TransferHelper.recvMessage(socket, flag);
+                if (reply != null) reply.stamp(RequestTrace.CLIENT_RECEIVE);
+                log.debug("Recieved message " + reply);
+            } catch (TransferHelper.ZmqEtermException e) {
+                log.error(e);
+                close();
+                return RC.NO_MESSAGE;
+            } catch (IOException e) {
+                log.error(e);
+                return RC.INVALID;
+            }
         }
 
         if (reply == null) { return RC.NO_MESSAGE; }
 
-        Callback<Reply> callback = pendingCallbacks.get(reply.getCallbackId());
-        pendingCallbacks.remove(reply.getCallbackId());
+        return exec(reply);
+    }
 
-        // DIRTY HACK to executed callbacks accessible from outside the class
-        lastCallback = callback;
+    private RC exec(TransferWrapper reply) {
+        long sentAt = pendingCallbacks.timestampOf(reply.getCallbackId());
+        int requestBytes = pendingCallbacks.sizeOf(reply.getCallbackId());
+        Callback<Reply> callback = pendingCallbacks.remove(reply.getCallbackId());
 
         if (callback == null) {
+            // stale: timed out or cancelled before
             log.warn("No callback for message" + reply);
+            metrics.orphaned();
             return RC.NO_CALLBACK;
         }
 
+        // deserialize only, when the reply is still awaited
+        Serializable object;
+        try {
+            object = reply.getObject();
+        } catch (TransferHelper.ProtocolException e) {
+            log.error(e);
+            recordFailure();
+            metrics.errored(sentAt);
+            callback.error(new RequestException(e));
+            return RC.INVALID;
+        }
+
+        reply.stamp(RequestTrace.CALLBACK_START);
+
+        RC rc;
         if (reply.isError()) {
-            callback.onError((RequestException) reply.getObject());
-            return RC.ERR;
+            recordFailure();
+            metrics.errored(sentAt);
+            callback.error((RequestException) object);
+            rc = RC.ERR;
         } else {
-            callback.onSuccess((Reply) reply.getObject());
-            return RC.SUC;
+            consecutiveFailures = 0;
+            metrics.succeeded(sentAt);
+            int frameBytes = requestBytes == -1 ? -1 : requestBytes + reply.getPayloadSize();
+            callback.success((Reply) object, frameBytes);
+            rc = RC.SUC;
         }
+
+        if (reply.getTrace() != null) {
+            reply.stamp(RequestTrace.CALLBACK_END);
+            Tracing tracing = this.tracing;
+            if (tracing != null) {
+                tracing.report(new RequestTrace(endpoint, reply.getRequestTypeId(), reply.getTrace()));
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * Blocking request execution on the socket of this adapter.
+     *
+     * The reply is matched by its callbackId. Replies for other callbacks, that arrive
+     * in the meantime, are kept and executed by the following recvAndExec() calls.
+     * A reply arriving after the timeout is discarded.
+     *
+     * @param request           to be sent to server
+     * @param timeout           in ms. if 0 it will return immediately. -1 means infinite wait.
+     * @return response         never null.
+     *
+     * @throws RequestException thrown by request handler
+     * @throws TimeoutException thrown on timeout
+     */
+    public Reply sendSync(Request request, int timeout) throws RequestException, TimeoutException {
+        return sendSync(request, timeout, new SyncCallback<Reply>());
+    }
+
+    /**
+     * Like sendSync(request, timeout). callback records the outcome and the frame sizes.
+     */
+    Reply sendSync(Request request, int timeout, SyncCallback<Reply> callback)
+            throws RequestException, TimeoutException {
+        int callbackId = execute(request, callback, timeout, null);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        while (!callback.done) {
+            int pollTimeout = -1;
+            if (timeout >= 0) {
+                long nanosLeft = deadline - System.nanoTime();
+                pollTimeout = (int) Math.max(0, (nanosLeft + 999999) / 1000000);
+            }
+
+            if (poller.poll(pollTimeout) <= 0) {
+                if (timeout >= 0 && System.nanoTime() - deadline >= 0) {
+                    expire(callbackId);
+                    throw new TimeoutException();
+                }
+                continue;
+            }
+
+            TransferWrapper reply;
+            try {
+                reply = TransferHelper.recvMessage(socket, ZMQ.NOBLOCK);
+            } catch (TransferHelper.ZmqEtermException e) {
+                log.error("ETERM. Closing socket.");
+                close();
+                throw new RequestException(e);
+            } catch (IOException e) {
+                log.error(e);
+                continue;
+            }
+
+            if (reply == null) continue;
+            reply.stamp(RequestTrace.CLIENT_RECEIVE);
+
+            if (reply.getCallbackId() == callbackId) {
+                exec(reply);
+            } else {
+                deferredReplies.add(reply);
+            }
+        }
+
+        if (callback.timedOut) throw new TimeoutException();
+        if (callback.error != null) throw callback.error;
+        return callback.reply;
+    }
+
+    /**
+     * @return true if replies kept by sendSync() are waiting for recvAndExec()
+     */
+    public boolean hasDeferredReplies() {
+        return !deferredReplies.isEmpty();
+    }
+
+    /**
+     * Receive all queued messages without blocking and execute the corresponding callbacks.
+     *
+     * @return number of received messages
+     */
+    public int drain() {
+        int count = 0;
+        while (recvAndExec(ZMQ.NOBLOCK) != RC.NO_MESSAGE) {
+            count++;
+        }
+        return count;
     }
 
     /**
      * Calls onTimeout() of all pending callbacks and remove callbacks from list.
      */
     public void timeout() {
-        for (Callback c: pendingCallbacks.values()){
-            c.onTimeout();
+        // removed first, since timed out callbacks may register new requests
+        List<Callback<Reply>> timedOut = pendingCallbacks.removeAll();
+        metrics.timedOut(timedOut.size());
+        for (Callback c : timedOut) {
+            c.timeout();
         }
+    }
 
-        pendingCallbacks.clear();
+    /**
+     * Remove pending callback without executing it.
+     * A reply that arrives later is discarded.
+     *
+     * @param callbackId    as returned by execute()
+     * @return true if the callback was pending
+     */
+    public boolean cancel(int callbackId) {
+        Callback<Reply> callback = pendingCallbacks.remove(callbackId);
+        if (callback == null) return false;
+
+        metrics.cancelled();
+        callback.cancelled();
+        return true;
+    }
+
+    /**
+     * Like cancel(), but counts the missing reply as timeout and as failure of the endpoint.
+     * The caller executes onTimeout().
+     *
+     * @return removed callback. null if it was not pending.
+     */
+    public Callback<Reply> expire(int callbackId) {
+        Callback<Reply> callback = pendingCallbacks.remove(callbackId);
+        if (callback == null) return null;
+
+        metrics.timedOut(1);
+        recordFailure();
+        return callback;
     }
 
+    /**
+     * Keep a pending callback registered, but do not count it in hasPendingCallbacks(), so
+     * gatherResults() does not wait for it. Its reply or timeout is still executed.
+     * The callback calls unlinger() once it settled or was cancelled.
+     */
+    void linger() {
+        lingering++;
+    }
+
+    void unlinger() {
+        lingering--;
+    }
+
+    /**
+     * @return true if callbacks, that are not lingering, are pending
+     */
     public boolean hasPendingCallbacks() {
-        return !pendingCallbacks.isEmpty();
+        return pendingCallbacks.size() > lingering;
+    }
+
+    /**
+     * @return number of requests in flight
+     */
+    public int getPendingCount() {
+        return pendingCallbacks.size();
+    }
+
+    public AdapterMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    // ENDPOINT HEALTH //
+
+    private void recordFailure() {
+        consecutiveFailures++;
+        lastFailureTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return errors and timeouts since the last successful reply
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return requests that could not be sent, since the high water mark was reached or serialization failed.
+     */
+    public long getSendFailures() {
+        return sendFailures;
+    }
+
+    /**
+     * @return epoch ms of the last error or timeout
+     */
+    public long getLastFailureTime() {
+        return lastFailureTime;
+    }
+
+
+    /**
+     * @return default timeout in ms. -1 for no deadline.
+     */
+    public int getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    public void setDefaultTimeout(int defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /**
+     * @param protocolVersion   used for requests. VERSION_1 for services that do not understand VERSION_2.
+     */
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param tracing   samples requests for tracing. null disables tracing.
+     */
+    public void setTracing(Tracing tracing) {
+        this.tracing = tracing;
+    }
+
+    /**
+     * @param codec     requests are encoded with. Replies are decoded with the codec given in their header.
+     */
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+
+    /**
+     * Records the outcome of sendSync().
+     */
+    static class SyncCallback<T extends Serializable> extends Callback<T> {
+        boolean done = false;
+        boolean timedOut = false;
+        T reply;
+        int frameBytes = -1;
+        RequestException error;
+
+        @Override
+        public void onSuccess(T reply) {
+            this.reply = reply;
+            done = true;
+        }
+
+        @Override
+        void onSuccess(T reply, int frameBytes) {
+            this.frameBytes = frameBytes;
+            onSuccess(reply);
+        }
+
+        @Override
+        public void onError(RequestException e) {
+            error = e;
+            done = true;
+        }
+
+        @Override
+        public void onTimeout() {
+            timedOut = true;
+            done = true;
+        }
     }
 
 
@@ -172,7 +579,6 @@ class ZmqAdapterAsync<Request extends Serializable, Reply extends Serializable>
     public String toString() {
         return "ZmqAdapterAsync{" +
                 "endpoint=" + endpoint + ", " +
-                "callbackCounter=" + callbackCounter + ", " +
                 "pendingCallbacks=" + pendingCallbacks.size() +
                 '}';
     }
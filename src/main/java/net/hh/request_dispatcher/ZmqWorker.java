@@ -3,13 +3,30 @@ package net.hh.request_dispatcher;
 import org.apache.log4j.Logger;
 import org.zeromq.ZMQ;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * ZmqWorker Class
  * <p/>
  * Handles (de-)serialization of ZmqMessages on REP socket
  * and forwards requests to RequestHandler object.
+ * <p/>
+ * With an AsyncRequestHandler, the worker keeps up to maxInFlight requests in flight
+ * and sends each reply, when its future completes.
  *
  * @param <RequestType> Type of incoming requests to requestHandler
  * @param <ReplyType>   Type of replies from requestHandler
@@ -19,17 +36,37 @@ public class ZmqWorker<RequestType extends Serializable, ReplyType extends Seria
 
     private static final Logger log = Logger.getLogger(ZmqWorker.class);
 
-    private final RequestHandler<RequestType, ReplyType> handler;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+
+    private final RequestHandler<RequestType, ReplyType> handler;                // null for async handlers
+    private final AsyncRequestHandler<RequestType, ReplyType> asyncHandler;      // null for sync handlers
 
     private ZMQ.Socket workSocket = null;        // mutable. Can be changed by setSocket()
     private ZMQ.Socket controlSocket = null; //mutable.
 
+    private volatile Codec replyCodec = null;   // null: reply in the codec of the request
+
+    private final AtomicLong expired = new AtomicLong();    // requests dropped after their deadline
+
+    // async requests
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int inFlight = 0;                   // worker thread only
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<Completion>();
+    private final AtomicBoolean signalled = new AtomicBoolean(false);
+    private Pipe wakeup = null;                 // written on completion, polled by the worker thread
+
     /**
      * @param handler method to execute on work
      */
     public ZmqWorker(final RequestHandler<RequestType, ReplyType> handler) {
-        super("ZmqWorker");
-        this.handler = handler;
+        this(null, null, handler, null);
+    }
+
+    /**
+     * @param handler returns futures of the replies
+     */
+    public ZmqWorker(final AsyncRequestHandler<RequestType, ReplyType> handler) {
+        this(null, null, null, handler);
     }
 
     /**
@@ -38,10 +75,26 @@ public class ZmqWorker<RequestType extends Serializable, ReplyType extends Seria
      * @param handler       method to execute on work
      */
     public ZmqWorker(final ZMQ.Socket workSocket, final ZMQ.Socket controlSocket, final RequestHandler<RequestType, ReplyType> handler) {
+        this(workSocket, controlSocket, handler, null);
+    }
+
+    /**
+     * @param workSocket    socket to listen for work
+     * @param controlSocket socket to listen for control messages
+     * @param handler       returns futures of the replies
+     */
+    public ZmqWorker(final ZMQ.Socket workSocket, final ZMQ.Socket controlSocket, final AsyncRequestHandler<RequestType, ReplyType> handler) {
+        this(workSocket, controlSocket, null, handler);
+    }
+
+    private ZmqWorker(final ZMQ.Socket workSocket, final ZMQ.Socket controlSocket,
+                      final RequestHandler<RequestType, ReplyType> handler,
+                      final AsyncRequestHandler<RequestType, ReplyType> asyncHandler) {
         super("ZmqWorker");
         this.workSocket = workSocket;
         this.controlSocket = controlSocket;
         this.handler = handler;
+        this.asyncHandler = asyncHandler;
     }
 
     /**
@@ -62,12 +115,54 @@ public class ZmqWorker<RequestType extends Serializable, ReplyType extends Seria
                      final String workEndpoint,
                      final RequestHandler<RequestType, ReplyType> handler) {
         this(ctx.socket(ZMQ.ROUTER), ctx.socket(ZMQ.SUB), handler);
+        bindWorkSocket(workEndpoint);
+    }
+
+    /**
+     * Like ZmqWorker(ctx, workEndpoint, handler) for a non-blocking handler.
+     *
+     * @param handler returns futures of the replies
+     */
+    public ZmqWorker(final ZMQ.Context ctx,
+                     final String workEndpoint,
+                     final AsyncRequestHandler<RequestType, ReplyType> handler) {
+        this(ctx.socket(ZMQ.ROUTER), ctx.socket(ZMQ.SUB), handler);
+        bindWorkSocket(workEndpoint);
+    }
+
+    private void bindWorkSocket(final String workEndpoint) {
         workSocket.setLinger(1000);
         workSocket.setHWM(1000);
         workSocket.bind(workEndpoint);
         this.setName("ZmqWorker{" + workEndpoint + "}");
     }
 
+    /**
+     * @param codec     replies are encoded with. null to reply in the codec of the request (default).
+     *                  Replies to protocol v1 requests are always encoded with Codec.JAVA.
+     */
+    public void setReplyCodec(final Codec codec) {
+        this.replyCodec = codec;
+    }
+
+    /**
+     * @return requests dropped without reply, since the client had timed out on arrival
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * Bounds the requests of an AsyncRequestHandler in flight. Further requests are left
+     * on the socket, until a reply was sent. Without effect for a RequestHandler.
+     *
+     * @param maxInFlight   > 0. Default DEFAULT_MAX_IN_FLIGHT.
+     */
+    public void setMaxInFlight(final int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Max in flight " + maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+
     /**
      * Side: Closes previously set socket.
      */
@@ -110,27 +205,64 @@ public class ZmqWorker<RequestType extends Serializable, ReplyType extends Seria
                 throw new IllegalStateException("Sockets not initialized");
             }
 
-            ZMQ.Poller poller = new ZMQ.Poller(2);
+            ZMQ.Poller poller = new ZMQ.Poller(3);
 
             ZMQ.PollItem payloadPoller = new ZMQ.PollItem(workSocket, ZMQ.Poller.POLLIN);
             poller.register(payloadPoller);
+            boolean receiving = true;
 
             ZMQ.PollItem controlPoller = new ZMQ.PollItem(controlSocket, ZMQ.Poller.POLLIN);
             poller.register(controlPoller);
 
+            ZMQ.PollItem wakeupPoller = null;
+            if (asyncHandler != null) {
+                wakeup = openWakeup();
+                wakeupPoller = new ZMQ.PollItem(wakeup.source(), ZMQ.Poller.POLLIN);
+                poller.register(wakeupPoller);
+            }
+
             while (!Thread.interrupted()) {
+                // stop receiving at maxInFlight, requests queue up on the socket
+                if (receiving != (inFlight < maxInFlight)) {
+                    receiving = !receiving;
+                    if (receiving) {
+                        poller.register(payloadPoller);
+                    } else {
+                        poller.unregister(workSocket);
+                    }
+                }
+
                 log.trace("Waiting for messages.");
                 poller.poll();
 
-                if (payloadPoller.isReadable()) {
+                if (wakeupPoller != null && wakeupPoller.isReadable()) {
+                    sendCompletedReplies();
+                }
+
+                if (receiving && payloadPoller.isReadable()) {
                     try {
                         TransferWrapper request = TransferHelper.recvMessage(workSocket, 0);
+                        if (request == null) continue;
+                        request.stamp(RequestTrace.WORKER_RECEIVE);
+
+                        if (isExpired(request)) {
+                            // the client has already timed out. Dropped before deserialization.
+                            long dropped = expired.incrementAndGet();
+                            log.debug("Dropping expired request " + request + ", " + dropped + " dropped in total.");
+                            continue;
+                        }
 
-                        TransferWrapper reply = processRequest(request);
+                        if (asyncHandler != null) {
+                            processRequestAsync(request);
+                            continue;
+                        }
+
+                        Serializable reply = processRequest(request);
 
                         if (request.isOneWayRequest()) continue;
 
-                        reply.toMessage().send(workSocket);
+                        Codec codec = replyCodec != null ? replyCodec : request.getCodec();
+                        TransferHelper.sendReply(workSocket, request, reply, codec);
 
                     } catch (TransferHelper.ProtocolException e) {
                         log.error(e);
@@ -139,28 +271,223 @@ public class ZmqWorker<RequestType extends Serializable, ReplyType extends Seria
                     String CMD = controlSocket.recvStr();
                     log.trace("Received Command " + CMD);
                     if (CMD.equals(Commands.CMD_STOP)) break;
-                } else {
+                } else if (wakeupPoller == null || !wakeupPoller.isReadable()) {
                     log.warn("Interrupted polling.");
                     break;
                 }
             }
         } finally { // ZmqEtermExecption handeled here
             log.info("Terminating Loop closing sockets.");
+            if (inFlight > 0) log.warn("Dropping " + inFlight + " requests in flight.");
+            closeWakeup();
             closeSockets();
         }
     }
 
-    private TransferWrapper processRequest(TransferWrapper requestMessage) {
+    /**
+     * Deadlines are transmitted as time left and converted to the clock of the worker on arrival.
+     * See TransferHeader.
+     */
+    private static boolean isExpired(TransferWrapperRaw request) {
+        long deadline = request.getDeadline();
+        return deadline != TransferHeader.NO_DEADLINE && deadline < System.currentTimeMillis();
+    }
+
+    /**
+     * @return reply of the handler or RequestException, also if the request could not be deserialized.
+     *         Batch of replies for batch requests.
+     */
+    private Serializable processRequest(TransferWrapper requestMessage) {
+        Serializable request;
+        try {
+            request = requestMessage.getObject();
+        } catch (TransferHelper.ProtocolException e) {
+            return new RequestException(e);
+        }
 
+        requestMessage.stamp(RequestTrace.HANDLER_START);
         try {
-            RequestType request = (RequestType) requestMessage.getObject();
-            ReplyType reply = handler.handleRequest(request);
+            return handleAll(requestMessage, request);
+        } finally {
+            requestMessage.stamp(RequestTrace.HANDLER_END);
+        }
+    }
+
+    private Serializable handleAll(TransferWrapper requestMessage, Serializable request) {
+        if (!requestMessage.isBatch()) {
+            return handle(request);
+        }
 
-            return requestMessage.constructReply(reply);
+        if (!(request instanceof List)) {
+            return new RequestException("Batch payload is not a list: " + request.getClass());
+        }
+
+        List<Serializable> requests = (List<Serializable>) request;
+        List<Serializable> replies = new ArrayList<Serializable>(requests.size());
+        for (Serializable item : requests) {
+            replies.add(handle(item));
+        }
+        return new Batch(replies);
+    }
+
+    /**
+     * @return reply of the handler or RequestException
+     */
+    private Serializable handle(Serializable request) {
+        try {
+            return handler.handleRequest((RequestType) request);
         } catch (ClassCastException e) {
-            return requestMessage.constructReply(new RequestException(e));
+            return new RequestException(e);
+        } catch (Exception e) {
+            return new RequestException(e);
+        }
+    }
+
+    ////////////////////// ASYNC REQUESTS ////////////////////////
+
+    /**
+     * Calls the async handler. The reply is queued when its future completes,
+     * and sent by the worker thread in sendCompletedReplies().
+     */
+    private void processRequestAsync(final TransferWrapper requestMessage) {
+        CompletableFuture<Serializable> reply;
+        try {
+            Serializable request = requestMessage.getObject();
+            requestMessage.stamp(RequestTrace.HANDLER_START);
+            reply = handleAllAsync(requestMessage, request);
+        } catch (TransferHelper.ProtocolException e) {
+            reply = CompletableFuture.<Serializable>completedFuture(new RequestException(e));
+        }
+
+        inFlight++;
+        reply.whenComplete(new BiConsumer<Serializable, Throwable>() {
+            @Override
+            public void accept(Serializable reply, Throwable e) {
+                requestMessage.stamp(RequestTrace.HANDLER_END);
+                completions.add(new Completion(requestMessage, e == null ? reply : new RequestException(e)));
+                signal();
+            }
+        });
+    }
+
+    private CompletableFuture<Serializable> handleAllAsync(TransferWrapper requestMessage, Serializable request) {
+        if (!requestMessage.isBatch()) {
+            return handleAsync(request);
+        }
+
+        if (!(request instanceof List)) {
+            return CompletableFuture.<Serializable>completedFuture(
+                    new RequestException("Batch payload is not a list: " + request.getClass()));
+        }
+
+        List<Serializable> requests = (List<Serializable>) request;
+        final List<CompletableFuture<Serializable>> replies = new ArrayList<CompletableFuture<Serializable>>(requests.size());
+        for (Serializable item : requests) {
+            replies.add(handleAsync(item));
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture[replies.size()]))
+                .thenApply(new Function<Void, Serializable>() {
+                    @Override
+                    public Serializable apply(Void done) {
+                        List<Serializable> batch = new ArrayList<Serializable>(replies.size());
+                        for (CompletableFuture<Serializable> reply : replies) {
+                            batch.add(reply.join());
+                        }
+                        return new Batch(batch);
+                    }
+                });
+    }
+
+    /**
+     * @return future of the reply of the handler or of a RequestException. Never completes exceptionally.
+     */
+    private CompletableFuture<Serializable> handleAsync(Serializable request) {
+        CompletableFuture<ReplyType> reply;
+        try {
+            reply = asyncHandler.handleRequest((RequestType) request);
         } catch (Exception e) {
-            return requestMessage.constructReply(new RequestException(e));
+            return CompletableFuture.<Serializable>completedFuture(new RequestException(e));
+        }
+
+        if (reply == null) {
+            return CompletableFuture.<Serializable>completedFuture(new RequestException("Handler returned no future"));
+        }
+
+        return reply.handle(new BiFunction<ReplyType, Throwable, Serializable>() {
+            @Override
+            public Serializable apply(ReplyType reply, Throwable e) {
+                if (e == null) return reply;
+                if (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+                return new RequestException(e);
+            }
+        });
+    }
+
+    /**
+     * Called on the worker thread, when the wakeup pipe is readable.
+     */
+    private void sendCompletedReplies() {
+        // clear the signal before draining, so completions added meanwhile signal again
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            while (wakeup.source().read(buffer) > 0) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            log.error("Reading wakeup pipe failed", e);
+        }
+        signalled.set(false);
+
+        Completion completion;
+        while ((completion = completions.poll()) != null) {
+            inFlight--;
+            if (completion.request.isOneWayRequest()) continue;
+
+            Codec codec = replyCodec != null ? replyCodec : completion.request.getCodec();
+            TransferHelper.sendReply(workSocket, completion.request, completion.reply, codec);
+        }
+    }
+
+    /**
+     * Called on the thread completing a future. Writes to the pipe once per drain of the completions.
+     */
+    private void signal() {
+        if (!signalled.compareAndSet(false, true)) return;
+        try {
+            wakeup.sink().write(ByteBuffer.wrap(new byte[1]));
+        } catch (IOException e) {
+            // worker has terminated
+            log.debug("Wakeup of worker failed", e);
+        }
+    }
+
+    private static Pipe openWakeup() {
+        try {
+            Pipe pipe = Pipe.open();
+            pipe.source().configureBlocking(false); // required by the poller
+            return pipe;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open wakeup pipe", e);
+        }
+    }
+
+    private void closeWakeup() {
+        if (wakeup == null) return;
+        try {
+            wakeup.sink().close();
+            wakeup.source().close();
+        } catch (IOException e) {
+            log.warn("Closing wakeup pipe failed", e);
+        }
+    }
+
+    private static class Completion {
+        final TransferWrapper request;
+        final Serializable reply;
+
+        Completion(TransferWrapper request, Serializable reply) {
+            this.request = request;
+            this.reply = reply;
         }
     }
 
@@ -7,6 +7,7 @@ import zmq.Proxy;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Dispatches work to multiple ZmqWorkers.
@@ -22,6 +23,10 @@ public class ZmqWorkerProxy {
 
     private final Set<ZmqWorker> managedWorkers = new HashSet<ZmqWorker>();
 
+    private Codec replyCodec = null;    // null: reply in the codec of the request
+
+    private ExecutorService requestExecutor = null;     // threads of addThreadPerRequest() workers
+
     private final ZMQ.Context ctx;
     private final boolean isContextOwner;
 
@@ -133,6 +138,11 @@ public class ZmqWorkerProxy {
             }
             controlSocket.close();
 
+            if (requestExecutor != null) {
+                // replies of requests still running can not be sent anymore
+                requestExecutor.shutdownNow();
+            }
+
             if (isContextOwner) {
                 // terminates proxy loop and closes outsideSocket and payloadSocket.
                 ctx.term();
@@ -146,6 +156,19 @@ public class ZmqWorkerProxy {
         }
     }
 
+    /**
+     * Codec of the replies of all managed workers.
+     * Requests are decoded with the codec given in their header.
+     *
+     * @param codec     null to reply in the codec of the request (default).
+     */
+    public void setReplyCodec(final Codec codec) {
+        this.replyCodec = codec;
+        for (ZmqWorker worker : managedWorkers) {
+            worker.setReplyCodec(codec);
+        }
+    }
+
     //////////////////////  SET INTERFACE IMPLEMENTATION ////////////////////////////
 
     /**
@@ -157,6 +180,7 @@ public class ZmqWorkerProxy {
     public boolean add(final ZmqWorker worker) {
         worker.replaceWorkSocket(generateWorkerSocket());
         worker.replaceControlSocket(generateControlSocket());
+        worker.setReplyCodec(replyCodec);
         return managedWorkers.add(worker);
     }
 
@@ -221,4 +245,53 @@ public class ZmqWorkerProxy {
             add(new ZmqWorker<S,T>(handler));
         }
     }
+
+    /**
+     * Adds multiple workers with a non-blocking handler to proxy object.
+     * Each worker keeps up to ZmqWorker.DEFAULT_MAX_IN_FLIGHT requests in flight.
+     *
+     * @param numWorkers     number of concurrent workers
+     * @param handler       returns futures of the replies
+     */
+    public <S extends Serializable,T extends Serializable>  void add(int numWorkers, AsyncRequestHandler<S,T> handler) {
+        for (int i=0; i<numWorkers; i++) {
+            add(new ZmqWorker<S,T>(handler));
+        }
+    }
+
+    /**
+     * Adds workers, that run each request of a blocking handler on its own thread.
+     * The workers only own the sockets: they receive requests, and send the replies
+     * handed back by the request threads.
+     *
+     * Request threads are virtual threads if the JVM supports them (Java 21+), and
+     * up to 256 platform threads from a pool otherwise. They are stopped on shutdown().
+     *
+     * @param ioThreads     number of socket owning workers. Few are needed.
+     * @param handler       handles request. May block.
+     * @param maxInFlight   requests in flight per worker
+     */
+    public <S extends Serializable,T extends Serializable>  void addThreadPerRequest(int ioThreads,
+                                                                                   RequestHandler<S,T> handler,
+                                                                                   int maxInFlight) {
+        if (requestExecutor == null) {
+            requestExecutor = ThreadPerRequestHandler.newExecutor();
+        }
+
+        AsyncRequestHandler<S,T> threadPerRequest = new ThreadPerRequestHandler<S,T>(handler, requestExecutor);
+        for (int i=0; i<ioThreads; i++) {
+            ZmqWorker<S,T> worker = new ZmqWorker<S,T>(threadPerRequest);
+            worker.setMaxInFlight(maxInFlight);
+            add(worker);
+        }
+    }
+
+    /**
+     * Like addThreadPerRequest(ioThreads, handler, maxInFlight) with ZmqWorker.DEFAULT_MAX_IN_FLIGHT
+     * on virtual threads, and 256 otherwise.
+     */
+    public <S extends Serializable,T extends Serializable>  void addThreadPerRequest(int ioThreads,
+                                                                                   RequestHandler<S,T> handler) {
+        addThreadPerRequest(ioThreads, handler, ThreadPerRequestHandler.defaultMaxInFlight());
+    }
 }
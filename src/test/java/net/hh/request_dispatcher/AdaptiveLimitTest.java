@@ -0,0 +1,75 @@
+package net.hh.request_dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testGrowsAtNoLoadLatency() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 1, 100);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(MS, limit.getLimit());
+        }
+
+        Assert.assertEquals(100, limit.getLimit());
+        Assert.assertEquals(1.0, limit.getMinRtt(), 0.001);
+    }
+
+    @Test
+    public void testShrinksWhenRequestsQueue() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(50, 1, 100);
+        limit.onSample(MS, 50);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(4 * MS, limit.getLimit());
+        }
+
+        Assert.assertTrue("limit " + limit.getLimit(), limit.getLimit() < 10);
+    }
+
+    @Test
+    public void testDoesNotGrowWhileUnused() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 1, 100);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(MS, 1);
+        }
+
+        Assert.assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testBacksOffOnTimeout() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(100, 1, 100);
+
+        limit.onDrop();
+        Assert.assertEquals(90, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limit.onDrop();
+        }
+        Assert.assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    public void testAdmitsUpToLimit() throws Exception {
+        Backpressure backpressure = Backpressure.failFast(1).withAdaptiveLimit(new AdaptiveLimit(3, 1, 10));
+        backpressure.attach(1);
+
+        Assert.assertTrue(backpressure.tryAcquire());
+        Assert.assertTrue(backpressure.tryAcquire());
+        Assert.assertTrue(backpressure.tryAcquire());
+        Assert.assertFalse(backpressure.tryAcquire());
+
+        backpressure.timedOut(); // 3 * 0.9 -> 2
+        Assert.assertEquals(2, backpressure.getLimit());
+        Assert.assertFalse(backpressure.tryAcquire());
+
+        backpressure.release();
+        Assert.assertTrue(backpressure.tryAcquire());
+    }
+}
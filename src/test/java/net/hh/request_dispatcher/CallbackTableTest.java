@@ -0,0 +1,142 @@
+package net.hh.request_dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CallbackTableTest {
+
+    private final CallbackTable<String> table = new CallbackTable<String>();
+
+    @Test
+    public void testPutRemove() throws Exception {
+        Callback<String> callback = newCallback();
+
+        int id = table.put(callback);
+
+        Assert.assertTrue(id >= 0);
+        Assert.assertEquals(1, table.size());
+        Assert.assertSame(callback, table.remove(id));
+        Assert.assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void testDuplicateReplyIsRejected() throws Exception {
+        int id = table.put(newCallback());
+
+        Assert.assertNotNull(table.remove(id));
+        Assert.assertNull(table.remove(id));
+    }
+
+    @Test
+    public void testStaleIdDoesNotMatchReusedSlot() throws Exception {
+        int oldId = table.put(newCallback());
+        table.remove(oldId);
+
+        Callback<String> callback = newCallback();
+        int newId = table.put(callback);
+
+        Assert.assertFalse(oldId == newId);
+        Assert.assertNull(table.remove(oldId));
+        Assert.assertSame(callback, table.remove(newId));
+    }
+
+    @Test
+    public void testUnknownIds() throws Exception {
+        table.put(newCallback());
+
+        Assert.assertNull(table.remove(-1));
+        Assert.assertNull(table.remove(CallbackTable.MAX_SLOTS - 1));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testGrow() throws Exception {
+        List<Callback<String>> callbacks = new ArrayList<Callback<String>>();
+        List<Integer> ids = new ArrayList<Integer>();
+
+        for (int i = 0; i < 1000; i++) {
+            Callback<String> callback = newCallback();
+            callbacks.add(callback);
+            ids.add(table.put(callback));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertSame(callbacks.get(i), table.remove(ids.get(i)));
+        }
+        Assert.assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void testIsFull() throws Exception {
+        Callback<String> callback = newCallback();
+        int id = -1;
+        for (int i = 0; i < CallbackTable.MAX_SLOTS; i++) {
+            Assert.assertFalse(table.isFull());
+            id = table.put(callback);
+        }
+        Assert.assertTrue(table.isFull());
+
+        table.remove(id);
+        Assert.assertFalse(table.isFull());
+    }
+
+    @Test
+    public void testIdsStayPositive() throws Exception {
+        // cycle all slots through all generations
+        for (int i = 0; i < (CallbackTable.GENERATIONS + 1) * CallbackTable.INITIAL_CAPACITY; i++) {
+            int id = table.put(newCallback());
+            Assert.assertTrue(id >= 0);
+            Assert.assertNotNull(table.remove(id));
+        }
+    }
+
+    @Test
+    public void testStaleIdIsRejectedAfterManyReuses() throws Exception {
+        // request timed out, its reply may still arrive
+        int staleId = table.put(newCallback());
+        table.remove(staleId);
+
+        // one request at a time, each slot is reused GENERATIONS / 8 times
+        for (int i = 0; i < CallbackTable.GENERATIONS / 8 * CallbackTable.INITIAL_CAPACITY; i++) {
+            Callback<String> callback = newCallback();
+            int id = table.put(callback);
+
+            Assert.assertFalse(id == staleId);
+            Assert.assertNull(table.remove(staleId));
+            Assert.assertSame(callback, table.remove(id));
+        }
+    }
+
+    @Test
+    public void testFreedSlotIsReusedLast() throws Exception {
+        int first = table.put(newCallback());
+        table.remove(first);
+
+        for (int i = 0; i < CallbackTable.INITIAL_CAPACITY - 1; i++) {
+            int id = table.put(newCallback());
+            Assert.assertFalse((id & (CallbackTable.MAX_SLOTS - 1)) == (first & (CallbackTable.MAX_SLOTS - 1)));
+            table.remove(id);
+        }
+    }
+
+    @Test
+    public void testRemoveAll() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            table.put(newCallback());
+        }
+
+        Assert.assertEquals(10, table.removeAll().size());
+        Assert.assertTrue(table.isEmpty());
+        Assert.assertTrue(table.put(newCallback()) >= 0);
+    }
+
+    private static Callback<String> newCallback() {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {}
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package net.hh.request_dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CircuitBreakerTest {
+
+    private final List<CircuitBreaker.State> transitions = new ArrayList<CircuitBreaker.State>();
+
+    @Test
+    public void testOpensAtFailureRate() throws Exception {
+        CircuitBreaker breaker = listen(new CircuitBreaker(50, 10, 4, 1000));
+
+        breaker.onSuccess(false);
+        breaker.onFailure(false);
+        breaker.onSuccess(false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure(false);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Assert.assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+        Assert.assertEquals(1, breaker.getRejected());
+        Assert.assertEquals(1, breaker.getTimesOpened());
+        Assert.assertEquals(2, breaker.getFailures());
+        Assert.assertEquals(2, breaker.getSuccesses());
+    }
+
+    @Test
+    public void testOldOutcomesLeaveWindow() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(50, 4, 4, 1000);
+
+        breaker.onFailure(false);
+        for (int i = 0; i < 6; i++) {
+            breaker.onSuccess(false);
+        }
+        breaker.onFailure(false);
+
+        // window holds 3 successes and 1 failure
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testSuccessfulProbeCloses() throws Exception {
+        CircuitBreaker breaker = listen(new CircuitBreaker(100, 1, 1, 0));
+
+        breaker.onFailure(false);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // single probe
+        Assert.assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+
+        breaker.onSuccess(true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertEquals(CircuitBreaker.Admission.ADMITTED, breaker.tryAcquire());
+        Assert.assertEquals(CircuitBreaker.Admission.ADMITTED, breaker.tryAcquire());
+
+        Assert.assertEquals(3, transitions.size());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, transitions.get(0));
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, transitions.get(1));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, transitions.get(2));
+    }
+
+    @Test
+    public void testFailedProbeOpens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(100, 1, 1, 0);
+
+        breaker.onFailure(false);
+        Assert.assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+
+        breaker.onFailure(true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(2, breaker.getTimesOpened());
+    }
+
+    @Test
+    public void testOnlyProbeDecidesHalfOpen() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(100, 1, 1, 0);
+
+        breaker.onFailure(false);
+        Assert.assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+
+        // requests sent before the breaker opened
+        breaker.onSuccess(false);
+        breaker.onFailure(false);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+        Assert.assertEquals(1, breaker.getSuccesses());
+        Assert.assertEquals(2, breaker.getFailures());
+
+        breaker.onSuccess(true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testCancelledProbeIsReplaced() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(100, 1, 1, 0);
+
+        breaker.onFailure(false);
+        Assert.assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+        Assert.assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+
+        breaker.onCancel(false);
+        Assert.assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+
+        breaker.onCancel(true);
+        Assert.assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testStaysOpenForOpenTime() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(100, 1, 1, 10000);
+
+        breaker.onFailure(false);
+        Assert.assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private CircuitBreaker listen(CircuitBreaker breaker) {
+        breaker.addListener(new CircuitBreaker.Listener() {
+            @Override
+            public void onStateChange(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+                transitions.add(to);
+            }
+        });
+        return breaker;
+    }
+}
@@ -0,0 +1,164 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.Collections;
+
+/**
+ * Requests beyond the limit in flight are rejected, blocked or queued.
+ */
+public class DispatcherBackpressureTest {
+
+    private static final int DELAY = 200;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final String echoChannel = "inproc://backpressureEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    if (request.equals("SLOW")) Thread.sleep(DELAY);
+                    return request;
+                }
+            }
+    );
+
+    private final String[] results = new String[5];
+
+    @Before
+    public void setUp() throws Exception {
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testFailFastRejectsBeyondLimit() throws Exception {
+        Backpressure backpressure = register(Backpressure.failFast(2));
+
+        for (int i = 0; i < 3; i++) {
+            dp.execute("MSG", callback(i));
+        }
+        Assert.assertEquals(2, backpressure.getInFlight());
+
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", results[0]);
+        Assert.assertEquals("MSG", results[1]);
+        Assert.assertEquals("ERR", results[2]);
+        Assert.assertEquals(1, backpressure.getRejected());
+        Assert.assertEquals(0, backpressure.getInFlight());
+    }
+
+    @Test(timeout = 1000)
+    public void testQueuedRequestsAreSentWhenRepliesArrive() throws Exception {
+        Backpressure backpressure = register(Backpressure.queue(1, 10));
+
+        for (int i = 0; i < results.length; i++) {
+            dp.execute("MSG", callback(i));
+        }
+        Assert.assertEquals(results.length - 1, backpressure.getQueued());
+
+        dp.gatherResults();
+
+        for (String result : results) {
+            Assert.assertEquals("MSG", result);
+        }
+        Assert.assertEquals(0, backpressure.getRejected());
+        Assert.assertEquals(0, backpressure.getQueued());
+    }
+
+    @Test(timeout = 1000)
+    public void testFullQueueRejects() throws Exception {
+        Backpressure backpressure = register(Backpressure.queue(1, 1));
+
+        for (int i = 0; i < 3; i++) {
+            dp.execute("MSG", callback(i));
+        }
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", results[0]);
+        Assert.assertEquals("MSG", results[1]);
+        Assert.assertEquals("ERR", results[2]);
+        Assert.assertEquals(1, backpressure.getRejected());
+    }
+
+    @Test(timeout = 1000)
+    public void testBlockedRequestIsRejectedAfterTimeout() throws Exception {
+        Backpressure backpressure = register(Backpressure.block(1, DELAY / 4));
+
+        dp.execute("SLOW", callback(0));
+        dp.execute("MSG", callback(1));
+        dp.gatherResults();
+
+        Assert.assertEquals("SLOW", results[0]);
+        Assert.assertEquals("ERR", results[1]);
+        Assert.assertEquals(1, backpressure.getRejected());
+    }
+
+    @Test(timeout = 1000)
+    public void testBlockedRequestIsSentWhenReplyArrives() throws Exception {
+        Backpressure backpressure = register(Backpressure.block(1, 2 * DELAY));
+
+        dp.execute("SLOW", callback(0));
+        dp.execute("MSG", callback(1));
+
+        // first reply was received while blocking
+        Assert.assertEquals("SLOW", results[0]);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", results[1]);
+        Assert.assertEquals(0, backpressure.getRejected());
+    }
+
+    @Test(timeout = 1000)
+    public void testSyncRequestIsRejected() throws Exception {
+        Backpressure backpressure = register(Backpressure.failFast(1));
+
+        dp.execute("SLOW", callback(0));
+        try {
+            dp.executeSync("MSG", 500);
+            Assert.fail("Expected rejection");
+        } catch (RequestException e) {
+            // expected
+        }
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", dp.executeSync("MSG", 500));
+        Assert.assertEquals(1, backpressure.getRejected());
+        Assert.assertEquals(0, backpressure.getInFlight());
+    }
+
+    private Backpressure register(Backpressure backpressure) {
+        dp.registerService(String.class, Collections.singletonList(echoChannel), -1, Codec.JAVA, backpressure);
+        return backpressure;
+    }
+
+    private Callback<String> callback(final int index) {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                results[index] = reply;
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                results[index] = "ERR";
+            }
+        };
+    }
+}
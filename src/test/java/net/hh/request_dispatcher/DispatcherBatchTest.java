@@ -0,0 +1,132 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dispatcher.executeBatch()
+ */
+public class DispatcherBatchTest {
+
+    private static final int BATCH_SIZE = 200;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+    private final Dispatcher reactorDp = new Dispatcher(ctx, Dispatcher.Mode.REACTOR);
+
+    private final String echoChannel = "inproc://batchEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    if (request.equals("ERR")) throw new Exception("ERR");
+                    return request;
+                }
+            }
+    );
+
+    public static class otherReq implements Serializable {}
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        dp.registerService(otherReq.class, echoChannel);
+        reactorDp.registerService(String.class, echoChannel);
+
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        reactorDp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 2000)
+    public void testFanOut() throws Exception {
+        List<String> requests = new ArrayList<String>();
+        Callback[] callbacks = new Callback[BATCH_SIZE];
+        final String[] replies = new String[BATCH_SIZE];
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            requests.add(i == 7 ? "ERR" : "MSG" + i);
+            callbacks[i] = CallbackFactory(replies, i);
+        }
+
+        dp.executeBatch(requests, callbacks);
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG0", replies[0]);
+        Assert.assertEquals("ERR", replies[7]);
+        Assert.assertEquals("MSG" + (BATCH_SIZE - 1), replies[BATCH_SIZE - 1]);
+    }
+
+    @Test(timeout = 2000)
+    public void testSharedCallback() throws Exception {
+        final int[] count = new int[1];
+
+        dp.executeBatch(Arrays.asList("A", "B", "C"), new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                count[0]++;
+            }
+        });
+        dp.gatherResults();
+
+        Assert.assertEquals(3, count[0]);
+    }
+
+    @Test(timeout = 2000)
+    public void testVersion1FallsBackToSingleRequests() throws Exception {
+        final String[] replies = new String[2];
+
+        dp.setProtocolVersion(String.class, TransferHeader.VERSION_1);
+        dp.executeBatch(Arrays.asList("A", "B"), CallbackFactory(replies, 0), CallbackFactory(replies, 1));
+        dp.gatherResults();
+
+        Assert.assertEquals("A", replies[0]);
+        Assert.assertEquals("B", replies[1]);
+    }
+
+    @Test(timeout = 2000)
+    public void testReactor() throws Exception {
+        final String[] replies = new String[2];
+
+        reactorDp.executeBatch(Arrays.asList("A", "B"), CallbackFactory(replies, 0), CallbackFactory(replies, 1));
+        reactorDp.gatherResults();
+
+        Assert.assertEquals("A", replies[0]);
+        Assert.assertEquals("B", replies[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDifferentServices() throws Exception {
+        dp.executeBatch(Arrays.<Serializable>asList("A", new otherReq()), CallbackFactory(new String[2], 0));
+    }
+
+    private static Callback CallbackFactory(final String[] replies, final int index) {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                replies[index] = reply;
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                replies[index] = "ERR";
+            }
+        };
+    }
+}
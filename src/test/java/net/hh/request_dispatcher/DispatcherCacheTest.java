@@ -0,0 +1,103 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replies served from the client side cache.
+ */
+public class DispatcherCacheTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final AtomicInteger handled = new AtomicInteger();
+
+    private final String echoChannel = "inproc://cacheEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    handled.incrementAndGet();
+                    if (request.equals("FAIL")) throw new IllegalArgumentException(request);
+                    return request;
+                }
+            }
+    );
+
+    private final ReplyCache cache = new ReplyCache(10000, 1 << 20);
+
+    private final String[] replies = new String[2];
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        dp.setReplyCache(String.class, cache);
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testHitIsDeliveredOnGatherResults() throws Exception {
+        dp.execute("MSG", callback(0));
+        dp.gatherResults();
+
+        dp.execute("MSG", callback(1));
+        Assert.assertNull(replies[1]);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", replies[1]);
+        Assert.assertEquals(1, handled.get());
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @Test(timeout = 1000)
+    public void testSyncRequestsAreCached() throws Exception {
+        Assert.assertEquals("MSG", dp.executeSync("MSG", 500));
+        Assert.assertEquals("MSG", dp.executeSync("MSG", 500));
+
+        dp.execute("MSG", callback(0));
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", replies[0]);
+        Assert.assertEquals(1, handled.get());
+    }
+
+    @Test(timeout = 1000)
+    public void testErrorsAreNotCached() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                dp.executeSync("FAIL", 500);
+                Assert.fail("Expected error");
+            } catch (RequestException e) {
+                // expected
+            }
+        }
+
+        Assert.assertEquals(2, handled.get());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    private Callback<String> callback(final int index) {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                replies[index] = reply;
+            }
+        };
+    }
+}
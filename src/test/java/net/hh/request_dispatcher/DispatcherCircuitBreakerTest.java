@@ -0,0 +1,108 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Requests to a failing service fail at once while the breaker is open.
+ */
+public class DispatcherCircuitBreakerTest {
+
+    private static final int OPEN_TIME = 200;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final AtomicInteger handled = new AtomicInteger();
+
+    private final String echoChannel = "inproc://breakerEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    handled.incrementAndGet();
+                    if (request.equals("FAIL")) throw new IllegalArgumentException(request);
+                    return request;
+                }
+            }
+    );
+
+    private final CircuitBreaker breaker = new CircuitBreaker(50, 4, 4, OPEN_TIME);
+
+    private final String[] results = new String[5];
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        dp.setCircuitBreaker(String.class, breaker);
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 2000)
+    public void testOpenBreakerFailsWithoutSending() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            dp.execute("FAIL", callback(i));
+        }
+        dp.gatherResults();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(4, handled.get());
+
+        dp.execute("MSG", callback(4));
+        Assert.assertNull("failed on gatherResults()", results[4]);
+        dp.gatherResults();
+
+        Assert.assertEquals("ERR", results[4]);
+        Assert.assertEquals(4, handled.get());
+        Assert.assertEquals(1, breaker.getRejected());
+
+        try {
+            dp.executeSync("MSG", 500);
+            Assert.fail("Expected breaker to be open");
+        } catch (RequestException e) {
+            // expected
+        }
+        Assert.assertEquals(4, handled.get());
+    }
+
+    @Test(timeout = 2000)
+    public void testProbeClosesBreaker() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            dp.execute("FAIL", callback(i));
+        }
+        dp.gatherResults();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(OPEN_TIME);
+
+        Assert.assertEquals("MSG", dp.executeSync("MSG", 500));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private Callback<String> callback(final int index) {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                results[index] = reply;
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                results[index] = "ERR";
+            }
+        };
+    }
+}
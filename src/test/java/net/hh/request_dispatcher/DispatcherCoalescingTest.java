@@ -0,0 +1,113 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equal requests in flight are sent once.
+ */
+public class DispatcherCoalescingTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final AtomicInteger handled = new AtomicInteger();
+
+    private final String echoChannel = "inproc://coalescingEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    handled.incrementAndGet();
+                    if (request.equals("FAIL")) throw new IllegalArgumentException(request);
+                    if (request.equals("SLOW")) Thread.sleep(200);
+                    return request;
+                }
+            }
+    );
+
+    private final String[] results = new String[5];
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        dp.setCoalescing(String.class, true);
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testEqualRequestsShareReply() throws Exception {
+        for (int i = 0; i < results.length; i++) {
+            dp.execute("MSG", callback(i));
+        }
+        dp.gatherResults();
+
+        for (String result : results) {
+            Assert.assertEquals("MSG", result);
+        }
+        Assert.assertEquals(1, handled.get());
+
+        // settled requests are sent again
+        dp.execute("MSG", callback(0));
+        dp.gatherResults();
+
+        Assert.assertEquals(2, handled.get());
+    }
+
+    @Test(timeout = 1000)
+    public void testEqualRequestsShareError() throws Exception {
+        for (int i = 0; i < results.length; i++) {
+            dp.execute("FAIL", callback(i));
+        }
+        dp.gatherResults();
+
+        for (String result : results) {
+            Assert.assertEquals("ERR", result);
+        }
+        Assert.assertEquals(1, handled.get());
+    }
+
+    @Test(timeout = 1000)
+    public void testAttachedCallbackKeepsItsTimeout() throws Exception {
+        dp.execute("SLOW", callback(0), -1);
+        dp.execute("SLOW", callback(1), 50);
+        dp.gatherResults();
+
+        Assert.assertEquals("SLOW", results[0]);
+        Assert.assertEquals("TIMEOUT", results[1]);
+        Assert.assertEquals(1, handled.get());
+    }
+
+    private Callback<String> callback(final int index) {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                results[index] = reply;
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                results[index] = "ERR";
+            }
+
+            @Override
+            public void onTimeout() {
+                results[index] = "TIMEOUT";
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+/**
+ * Codecs selected per service.
+ */
+public class DispatcherCodecTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final String echoChannel = "inproc://codecEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<TestDTO, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<TestDTO, String>() {
+                @Override
+                public String handleRequest(TestDTO request) throws Exception {
+                    return request.toString();
+                }
+            }
+    );
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(TestDTO.class, echoChannel, Codec.XML);
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testXmlService() throws Exception {
+        final String[] answer = new String[1];
+
+        dp.execute(new TestDTO("MSG"), new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                answer[0] = reply;
+            }
+        });
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", answer[0]);
+        Assert.assertEquals("SYNC", dp.executeSync(new TestDTO("SYNC"), 500));
+    }
+
+    @Test
+    public void testReplyInCodecOfRequest() throws Exception {
+        TransferWrapper request = new TransferWrapper("Hi", 0, TransferHeader.NO_DEADLINE,
+                TransferHeader.VERSION_2, Codec.XML);
+        TransferWrapper received = new TransferWrapper(request.toMessage());
+
+        Assert.assertEquals(Codec.XML, received.getCodec());
+        Assert.assertEquals("Hi", received.getObject());
+
+        TransferWrapper reply = new TransferWrapper(received.constructReply("Ho").toMessage());
+        Assert.assertEquals(Codec.XML, reply.getCodec());
+
+        TransferWrapper javaReply = new TransferWrapper(received.constructReply("Ho", Codec.JAVA).toMessage());
+        Assert.assertEquals(Codec.JAVA, javaReply.getCodec());
+        Assert.assertEquals("Ho", javaReply.getObject());
+    }
+
+    @Test(expected = TransferHelper.ProtocolException.class)
+    public void testUnknownCodec() throws Exception {
+        ZMsg msg = new ZMsg();
+
+        msg.add(new byte[0]);
+        msg.add(TransferHeader.encode(0, 255, 0, 0, TransferHeader.NO_DEADLINE));
+        msg.add(SerializationHelper.serialize("Hi"));
+
+        new TransferWrapper(msg);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testVersion1RequiresJavaCodec() throws Exception {
+        dp.setProtocolVersion(TestDTO.class, TransferHeader.VERSION_1);
+    }
+}
@@ -0,0 +1,139 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.io.Serializable;
+
+/**
+ * Per-request and per-service deadlines.
+ */
+public class DispatcherDeadlineTest {
+
+    private static final int DELAY = 500;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final String echoChannel = "inproc://deadlineEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    return request;
+                }
+            }
+    );
+
+    private final String sleepChannel = "inproc://deadlineSleepChannel";
+    private final ZmqWorker sleepWorker = new ZmqWorker<sleepReq, String>(
+            ctx,
+            sleepChannel,
+            new RequestHandler<sleepReq, String>() {
+                @Override
+                public String handleRequest(sleepReq request) throws Exception {
+                    Thread.sleep(DELAY);
+                    return "OK";
+                }
+            }
+    );
+
+    private final String defaultChannel = "inproc://deadlineDefaultChannel";
+    private final ZmqWorker defaultWorker = new ZmqWorker<defaultReq, String>(
+            ctx,
+            defaultChannel,
+            new RequestHandler<defaultReq, String>() {
+                @Override
+                public String handleRequest(defaultReq request) throws Exception {
+                    Thread.sleep(DELAY);
+                    return "OK";
+                }
+            }
+    );
+
+    public static class sleepReq implements Serializable {}
+    public static class defaultReq implements Serializable {}
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        dp.registerService(sleepReq.class, sleepChannel);
+        dp.registerService(defaultReq.class, defaultChannel, 20);
+
+        echoWorker.start();
+        sleepWorker.start();
+        defaultWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = DELAY)
+    public void testSlowServiceTimesOutAlone() throws Exception {
+        dp.execute(new sleepReq(), CallbackFactory(0), 20);
+        dp.execute("MSG", CallbackFactory(1), 20);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("TOUT", returnCodes[0]);
+        Assert.assertEquals("SUC", returnCodes[1]);
+        Assert.assertEquals("MSG", replies[1]);
+    }
+
+    @Test(timeout = DELAY)
+    public void testServiceDefaultTimeout() throws Exception {
+        dp.execute(new defaultReq(), CallbackFactory(0));
+        dp.execute("MSG", CallbackFactory(1));
+
+        dp.gatherResults();
+
+        Assert.assertEquals("TOUT", returnCodes[0]);
+        Assert.assertEquals("SUC", returnCodes[1]);
+    }
+
+    @Test(timeout = 2 * DELAY)
+    public void testDeadlineBeyondFirstWheel() throws Exception {
+        int timeout = 300; // cascaded from second level of the timer wheel
+
+        long start = System.nanoTime();
+        dp.execute(new sleepReq(), CallbackFactory(0), timeout);
+        dp.gatherResults();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        Assert.assertEquals("TOUT", returnCodes[0]);
+        Assert.assertTrue("expired early: " + elapsedMs, elapsedMs >= timeout);
+        Assert.assertTrue("expired late: " + elapsedMs, elapsedMs < DELAY);
+    }
+
+    private final String [] returnCodes = new String[10];
+    private final String [] replies = new String[10];
+
+    private Callback CallbackFactory(final int index) {
+        return new Callback() {
+            @Override
+            public void onSuccess(Serializable reply) {
+                replies[index] = reply.toString();
+                returnCodes[index] = "SUC";
+            }
+
+            @Override
+            public void onTimeout() {
+                returnCodes[index] = "TOUT";
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                returnCodes[index] = "ERR";
+            }
+        };
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.zeromq.ZMQ;
 
+import java.io.Serializable;
+
 /**
  * Created by hartmann on 4/2/14.
  */
@@ -63,4 +65,51 @@ public class DispatcherErrorTest {
         Assert.assertEquals("ERROR_CALLBACK", answer[1]);
         Assert.assertTrue(answer[2].endsWith("ERROR_MSG")); // prefixed by class name
     }
+
+    public static class NotSerializable implements Serializable {
+        final Object field = new Object();
+    }
+
+    @Test(timeout = 1000)
+    public void testUnsentRequestFailsOnGatherResults() throws Exception {
+        final String[] answer = new String[1];
+
+        ZMQ.Context ctx = ZMQ.context(0);
+        String channel = "inproc://unsent" + hashCode();
+
+        ZmqWorker<String, String> worker = new ZmqWorker<String, String>(ctx, channel,
+                new RequestHandler<String, String>() {
+                    @Override
+                    public String handleRequest(String request) {
+                        return request;
+                    }
+                });
+
+        Dispatcher dp = new Dispatcher(ctx);
+        dp.registerService(NotSerializable.class, channel);
+        worker.start();
+
+        dp.execute(new NotSerializable(), new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                answer[0] = "SUCCESS";
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                answer[0] = "ERROR_CALLBACK";
+            }
+        });
+
+        // not executed within execute()
+        Assert.assertNull(answer[0]);
+
+        dp.gatherResults();
+
+        dp.shutdown();
+        ctx.term();
+        worker.join();
+
+        Assert.assertEquals("ERROR_CALLBACK", answer[0]);
+    }
 }
@@ -0,0 +1,103 @@
+package net.hh.request_dispatcher;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.io.Serializable;
+
+/**
+ * gatherResults() drains replies of many services at once.
+ *
+ * Each service has its own request class, so that requests are routed to
+ * NUM_SERVICES different adapters of a single dispatcher.
+ * Throughput is measured by FanInBenchmark in benchmarks/.
+ */
+public class DispatcherFanInTest {
+
+    // CONSTANTS
+    static final int BURST = 20;          // requests per service and round
+    static final int ROUNDS = 3;
+
+    static final ZMQ.Context ctx = ZMQ.context(1);
+
+    public static class FanInReq implements Serializable {}
+
+    public static class Req0 extends FanInReq {}
+    public static class Req1 extends FanInReq {}
+    public static class Req2 extends FanInReq {}
+    public static class Req3 extends FanInReq {}
+    public static class Req4 extends FanInReq {}
+    public static class Req5 extends FanInReq {}
+    public static class Req6 extends FanInReq {}
+    public static class Req7 extends FanInReq {}
+
+    static final Class[] requestClasses = new Class[] {
+            Req0.class,
+            Req1.class,
+            Req2.class,
+            Req3.class,
+            Req4.class,
+            Req5.class,
+            Req6.class,
+            Req7.class
+    };
+
+    static final int NUM_SERVICES = requestClasses.length;
+
+    @BeforeClass
+    public static void setupServices() throws Exception {
+        for (int i = 0; i < NUM_SERVICES; i++) {
+            new ZmqWorker<FanInReq, String>(
+                    ctx,
+                    "inproc://fanIn" + i,
+                    new RequestHandler<FanInReq, String>() {
+                        @Override
+                        public String handleRequest(FanInReq request) throws Exception {
+                            return "OK";
+                        }
+                    }
+            ).start();
+        }
+    }
+
+    @AfterClass
+    public static void stopServices() throws Exception {
+        ctx.term();
+    }
+
+    @Test(timeout = 5000)
+    public void testAllRepliesAreGathered() throws Exception {
+        Dispatcher dp = new Dispatcher(ctx);
+
+        FanInReq[] requests = new FanInReq[NUM_SERVICES];
+        for (int i = 0; i < NUM_SERVICES; i++) {
+            dp.registerService(requestClasses[i], "inproc://fanIn" + i);
+            requests[i] = (FanInReq) requestClasses[i].newInstance();
+        }
+
+        final int[] replies = new int[NUM_SERVICES];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int j = 0; j < BURST; j++) {
+                for (int i = 0; i < NUM_SERVICES; i++) {
+                    final int service = i;
+                    dp.execute(requests[i], new Callback<String>() {
+                        @Override
+                        public void onSuccess(String reply) {
+                            replies[service]++;
+                        }
+                    });
+                }
+            }
+            dp.gatherResults();
+
+            for (int i = 0; i < NUM_SERVICES; i++) {
+                Assert.assertEquals((round + 1) * BURST, replies[i]);
+            }
+        }
+
+        dp.shutdown();
+    }
+}
@@ -0,0 +1,145 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+/**
+ * Dispatcher.executeAsync() in REACTOR and CALLER_THREAD mode.
+ */
+public class DispatcherFutureTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher reactorDp = new Dispatcher(ctx, Dispatcher.Mode.REACTOR);
+    private final Dispatcher callerDp = new Dispatcher(ctx);
+
+    private final String echoChannel = "inproc://futureEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    return request;
+                }
+            }
+    );
+
+    private final String errorChannel = "inproc://futureErrorChannel";
+    private final ZmqWorker errorWorker = new ZmqWorker<errorReq, String>(
+            ctx,
+            errorChannel,
+            new RequestHandler<errorReq, String>() {
+                @Override
+                public String handleRequest(errorReq request) throws Exception {
+                    throw new Exception("ERR");
+                }
+            }
+    );
+
+    private final String sleepChannel = "inproc://futureSleepChannel";
+    private final ZmqWorker sleepWorker = new ZmqWorker<sleepReq, String>(
+            ctx,
+            sleepChannel,
+            new RequestHandler<sleepReq, String>() {
+                @Override
+                public String handleRequest(sleepReq request) throws Exception {
+                    Thread.sleep(200);
+                    return "OK";
+                }
+            }
+    );
+
+    public static class errorReq implements Serializable {}
+    public static class sleepReq implements Serializable {}
+
+    @Before
+    public void setUp() throws Exception {
+        for (Dispatcher dp : new Dispatcher[]{reactorDp, callerDp}) {
+            dp.registerService(String.class, echoChannel);
+            dp.registerService(errorReq.class, errorChannel);
+            dp.registerService(sleepReq.class, sleepChannel);
+        }
+
+        echoWorker.start();
+        errorWorker.start();
+        sleepWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reactorDp.shutdown();
+        callerDp.shutdown();
+
+        ctx.term();
+    }
+
+    @Test(timeout = 2000)
+    public void testComposeOnReactor() throws Exception {
+        CompletableFuture<String> a = reactorDp.executeAsync("A");
+        CompletableFuture<String> b = reactorDp.executeAsync("B");
+
+        String combined = a.thenCombine(b, new BiFunction<String, String, String>() {
+            @Override
+            public String apply(String x, String y) {
+                return x + y;
+            }
+        }).get(1, TimeUnit.SECONDS);
+
+        Assert.assertEquals("AB", combined);
+    }
+
+    @Test(timeout = 2000)
+    public void testErrorOnReactor() throws Exception {
+        try {
+            reactorDp.executeAsync(new errorReq()).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RequestException);
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void testTimeoutOnReactor() throws Exception {
+        try {
+            reactorDp.executeAsync(new sleepReq(), 10).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void testCallerThread() throws Exception {
+        CompletableFuture<String> a = callerDp.executeAsync("A");
+        CompletableFuture<String> err = callerDp.executeAsync(new errorReq());
+
+        Assert.assertFalse(a.isDone());
+
+        callerDp.gatherResults();
+
+        Assert.assertEquals("A", a.get());
+        Assert.assertTrue(err.isCompletedExceptionally());
+    }
+
+    @Test(timeout = 2000)
+    public void testTimeoutOnCallerThread() throws Exception {
+        CompletableFuture<String> slow = callerDp.executeAsync(new sleepReq(), 10);
+        CompletableFuture<String> fast = callerDp.executeAsync("FAST");
+
+        callerDp.gatherResults();
+
+        Assert.assertEquals("FAST", fast.get());
+        Assert.assertTrue(slow.isCompletedExceptionally());
+    }
+}
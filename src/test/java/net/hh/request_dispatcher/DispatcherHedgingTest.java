@@ -0,0 +1,157 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hedged requests to a service with a slow endpoint.
+ */
+public class DispatcherHedgingTest {
+
+    private static final int DELAY = 500;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final AtomicBoolean slowA = new AtomicBoolean(false);
+    private final AtomicBoolean slowB = new AtomicBoolean(false);
+
+    private final String channelA = "inproc://hedgingChannelA";
+    private final ZmqWorker workerA = new ZmqWorker<String, String>(
+            ctx,
+            channelA,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    if (slowA.get()) Thread.sleep(DELAY);
+                    return "A";
+                }
+            }
+    );
+
+    private final String channelB = "inproc://hedgingChannelB";
+    private final ZmqWorker workerB = new ZmqWorker<String, String>(
+            ctx,
+            channelB,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    if (slowB.get()) Thread.sleep(DELAY);
+                    return "B";
+                }
+            }
+    );
+
+    private final HedgePolicy policy = new HedgePolicy(50, 100);
+
+    private final String[] replies = new String[2];
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, Arrays.asList(channelA, channelB));
+        dp.setHedgePolicy(String.class, policy);
+
+        workerA.start();
+        workerB.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 2 * DELAY)
+    public void testNoHedgesBeforeLatencyIsKnown() throws Exception {
+        slowA.set(true);
+
+        executeBoth();
+
+        Assert.assertEquals(0, policy.getHedgesSent());
+        Assert.assertTrue("A".equals(replies[0]) || "A".equals(replies[1]));
+    }
+
+    @Test(timeout = 2 * DELAY)
+    public void testSlowReplyIsHedged() throws Exception {
+        warmUp();
+        Assert.assertTrue(policy.getHedgeDelay() > 0);
+        Assert.assertTrue(policy.getHedgeDelay() < DELAY);
+
+        slowA.set(true);
+
+        long start = System.nanoTime();
+        executeBoth();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        Assert.assertEquals("B", replies[0]);
+        Assert.assertEquals("B", replies[1]);
+        Assert.assertEquals(1, policy.getHedgesSent());
+        Assert.assertEquals(1, policy.getHedgesWon());
+        Assert.assertTrue("waited for slow endpoint: " + elapsedMs, elapsedMs < DELAY);
+    }
+
+    @Test(timeout = 4 * DELAY)
+    public void testHedgeNeedsPermit() throws Exception {
+        Dispatcher bounded = new Dispatcher(ctx);
+        HedgePolicy boundedPolicy = new HedgePolicy(50, 100);
+        try {
+            bounded.registerService(String.class, Arrays.asList(channelA, channelB), -1, Codec.JAVA,
+                    Backpressure.failFast(1));
+            bounded.setHedgePolicy(String.class, boundedPolicy);
+
+            for (int i = 0; i < HedgePolicy.MIN_SAMPLES / 2; i++) {
+                executeBoth(bounded);
+            }
+            Assert.assertTrue(boundedPolicy.getHedgeDelay() > 0);
+
+            // both permits are taken by slow requests
+            slowA.set(true);
+            slowB.set(true);
+            executeBoth(bounded);
+
+            Assert.assertEquals(0, boundedPolicy.getHedgesSent());
+            Assert.assertTrue("A".equals(replies[0]) || "A".equals(replies[1]));
+        } finally {
+            bounded.shutdown();
+        }
+    }
+
+    private void executeBoth() {
+        executeBoth(dp);
+    }
+
+    /**
+     * One request to each endpoint.
+     */
+    private void executeBoth(Dispatcher dispatcher) {
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            dispatcher.execute("REQ", new Callback<String>() {
+                @Override
+                public void onSuccess(String reply) {
+                    replies[index] = reply;
+                }
+            });
+        }
+        dispatcher.gatherResults();
+    }
+
+    private void warmUp() {
+        for (int round = 0; round < HedgePolicy.MIN_SAMPLES / 10; round++) {
+            for (int i = 0; i < 10; i++) {
+                dp.execute("WARMUP", new Callback<String>() {
+                    @Override
+                    public void onSuccess(String reply) {}
+                });
+            }
+            dp.gatherResults();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.Arrays;
+
+/**
+ * Services registered with several endpoints.
+ */
+public class DispatcherLoadBalancingTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final String channelA = "inproc://balancingChannelA";
+    private final String channelB = "inproc://balancingChannelB";
+
+    private ZmqWorker workerA;
+    private ZmqWorker workerB;
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testRequestsAreSpreadOverEndpoints() throws Exception {
+        startWorkers(nameHandler("A"), nameHandler("B"));
+
+        final int[] counts = new int[2];
+        for (int i = 0; i < 10; i++) {
+            dp.execute("REQ", new Callback<String>() {
+                @Override
+                public void onSuccess(String reply) {
+                    counts[reply.equals("A") ? 0 : 1]++;
+                }
+            });
+        }
+        dp.gatherResults();
+
+        Assert.assertEquals(5, counts[0]);
+        Assert.assertEquals(5, counts[1]);
+    }
+
+    @Test(timeout = 1000)
+    public void testFailingEndpointIsEjected() throws Exception {
+        startWorkers(new RequestHandler<String, String>() {
+            @Override
+            public String handleRequest(String request) throws Exception {
+                throw new IllegalStateException("broken");
+            }
+        }, nameHandler("B"));
+
+        final int[] counts = new int[2]; // errors, successes
+        for (int i = 0; i < 10; i++) {
+            dp.execute("REQ", new Callback<String>() {
+                @Override
+                public void onSuccess(String reply) {
+                    counts[1]++;
+                }
+
+                @Override
+                public void onError(RequestException e) {
+                    counts[0]++;
+                }
+            });
+            dp.gatherResults();
+        }
+
+        Assert.assertEquals(ServiceEndpoints.EJECT_AFTER_FAILURES, counts[0]);
+        Assert.assertEquals(10 - ServiceEndpoints.EJECT_AFTER_FAILURES, counts[1]);
+    }
+
+    @Test(timeout = 1000)
+    public void testSyncRequestsAreBalanced() throws Exception {
+        startWorkers(nameHandler("A"), nameHandler("B"));
+
+        Assert.assertEquals("A", dp.executeSync("REQ", 500));
+        Assert.assertEquals("B", dp.executeSync("REQ", 500));
+    }
+
+    private void startWorkers(RequestHandler<String, String> handlerA, RequestHandler<String, String> handlerB) {
+        workerA = new ZmqWorker<String, String>(ctx, channelA, handlerA);
+        workerB = new ZmqWorker<String, String>(ctx, channelB, handlerB);
+        workerA.start();
+        workerB.start();
+
+        dp.registerService(String.class, Arrays.asList(channelA, channelB));
+    }
+
+    private static RequestHandler<String, String> nameHandler(final String name) {
+        return new RequestHandler<String, String>() {
+            @Override
+            public String handleRequest(String request) throws Exception {
+                return name;
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * Metrics of a service are counted and exported via JMX.
+ */
+public class DispatcherMetricsTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final String echoChannel = "inproc://metricsEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    if (request.equals("FAIL")) throw new IllegalArgumentException(request);
+                    if (request.equals("SLOW")) Thread.sleep(200);
+                    return request;
+                }
+            }
+    );
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testOutcomesAreCounted() throws Exception {
+        Callback<String> ignore = new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {}
+        };
+
+        dp.execute("MSG", ignore);
+        dp.execute("MSG", ignore);
+        dp.execute("FAIL", ignore);
+        dp.execute("SLOW", ignore, 50);
+        dp.execute("ONE WAY", null);
+        dp.gatherResults();
+
+        MetricsSnapshot metrics = dp.getMetrics(String.class);
+        Assert.assertEquals(4, metrics.getSent());
+        Assert.assertEquals(2, metrics.getSucceeded());
+        Assert.assertEquals(1, metrics.getErrored());
+        Assert.assertEquals(1, metrics.getTimedOut());
+        Assert.assertEquals(0, metrics.getInFlight());
+        Assert.assertEquals(3, metrics.getLatencyCount());
+        Assert.assertTrue(metrics.getLatencyMax() > 0);
+    }
+
+    @Test(timeout = 1000)
+    public void testMetricsAreExportedViaJmx() throws Exception {
+        dp.executeSync("MSG", 500);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("net.hh.request_dispatcher:type=Endpoint,*"), null);
+
+        ObjectName name = null;
+        for (ObjectName candidate : names) {
+            if (candidate.getKeyProperty("endpoint").equals(ObjectName.quote(echoChannel))) name = candidate;
+        }
+        Assert.assertNotNull(name);
+        Assert.assertEquals(1L, server.getAttribute(name, "Succeeded"));
+    }
+}
@@ -0,0 +1,225 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.io.Serializable;
+
+/**
+ * Promises depending on callbacks and other promises.
+ */
+public class DispatcherPromiseTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final String echoChannel = "inproc://promiseEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    return request;
+                }
+            }
+    );
+
+    private final String errorChannel = "inproc://promiseErrorChannel";
+    private final ZmqWorker errorWorker = new ZmqWorker<errorReq, String>(
+            ctx,
+            errorChannel,
+            new RequestHandler<errorReq, String>() {
+                @Override
+                public String handleRequest(errorReq request) throws Exception {
+                    throw new Exception("ERR");
+                }
+            }
+    );
+
+    private final String sleepChannel = "inproc://promiseSleepChannel";
+    private final ZmqWorker sleepWorker = new ZmqWorker<sleepReq, String>(
+            ctx,
+            sleepChannel,
+            new RequestHandler<sleepReq, String>() {
+                @Override
+                public String handleRequest(sleepReq request) throws Exception {
+                    Thread.sleep(200);
+                    return "OK";
+                }
+            }
+    );
+
+    public static class errorReq implements Serializable {}
+    public static class sleepReq implements Serializable {}
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        dp.registerService(errorReq.class, errorChannel);
+        dp.registerService(sleepReq.class, sleepChannel);
+
+        echoWorker.start();
+        errorWorker.start();
+        sleepWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testNestedPromise() throws Exception {
+        final StringBuilder order = new StringBuilder();
+
+        Callback<String> callback1 = recorder(order, "1");
+        Callback<String> callback2 = recorder(order, "2");
+        dp.execute("A", callback1);
+        dp.execute("B", callback2);
+
+        Promise inner = dp.promise(new Runnable() {
+            @Override
+            public void run() {
+                order.append("inner");
+            }
+        }, callback1);
+
+        dp.promise(new Runnable() {
+            @Override
+            public void run() {
+                order.append("outer");
+            }
+        }, inner, callback2);
+
+        dp.gatherResults();
+
+        Assert.assertTrue(order.toString().endsWith("outer"));
+        Assert.assertTrue(order.indexOf("inner") > order.indexOf("1"));
+    }
+
+    @Test(timeout = 1000)
+    public void testErrorPropagates() throws Exception {
+        final String[] answer = new String[2];
+
+        Callback<String> callback = recorder(new StringBuilder(), "E");
+        dp.execute(new errorReq(), callback);
+
+        Promise inner = dp.promise(new Promise(new Runnable() {
+            @Override
+            public void run() {
+                answer[0] = "kept";
+            }
+        }) {
+            @Override
+            public void onError(RequestException e) {
+                answer[0] = "broken";
+            }
+        }, callback);
+
+        dp.promise(new Promise(new Runnable() {
+            @Override
+            public void run() {
+                answer[1] = "kept";
+            }
+        }) {
+            @Override
+            public void onError(RequestException e) {
+                answer[1] = "broken";
+            }
+        }, inner);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("broken", answer[0]);
+        Assert.assertEquals("broken", answer[1]);
+    }
+
+    @Test(timeout = 1000)
+    public void testTimeoutPropagates() throws Exception {
+        final String[] answer = new String[1];
+
+        Callback<String> fast = recorder(new StringBuilder(), "F");
+        Callback<String> slow = recorder(new StringBuilder(), "S");
+        dp.execute("MSG", fast);
+        dp.execute(new sleepReq(), slow, 10);
+
+        dp.promise(new Promise(new Runnable() {
+            @Override
+            public void run() {
+                answer[0] = "kept";
+            }
+        }) {
+            @Override
+            public void onTimeout() {
+                answer[0] = "timeout";
+            }
+        }, fast, slow);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("timeout", answer[0]);
+    }
+
+    @Test(timeout = 1000)
+    public void testSettledDependency() throws Exception {
+        final String[] answer = new String[1];
+
+        Callback<String> callback = recorder(new StringBuilder(), "1");
+        dp.execute("MSG", callback);
+        dp.gatherResults();
+
+        // callback settled before the promise was registered
+        dp.promise(new Runnable() {
+            @Override
+            public void run() {
+                answer[0] = "kept";
+            }
+        }, callback);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("kept", answer[0]);
+    }
+
+    @Test(timeout = 1000)
+    public void testReusedCallback() throws Exception {
+        final StringBuilder order = new StringBuilder();
+
+        Callback<String> callback = recorder(order, "1");
+        dp.execute("MSG", callback);
+        dp.gatherResults();
+
+        // dispatched again. The promise waits for the second reply.
+        dp.execute("MSG", callback);
+        dp.promise(new Runnable() {
+            @Override
+            public void run() {
+                order.append("kept");
+            }
+        }, callback);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("11kept", order.toString());
+    }
+
+    private static Callback<String> recorder(final StringBuilder order, final String name) {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                order.append(name);
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                order.append(name);
+            }
+        };
+    }
+}
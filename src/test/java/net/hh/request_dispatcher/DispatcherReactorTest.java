@@ -0,0 +1,179 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatcher in REACTOR mode shared by several threads.
+ */
+public class DispatcherReactorTest {
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx, Dispatcher.Mode.REACTOR);
+
+    private final String echoChannel = "inproc://reactorEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    return request;
+                }
+            }
+    );
+
+    private final String sleepChannel = "inproc://reactorSleepChannel";
+    private final ZmqWorker sleepWorker = new ZmqWorker<sleepReq, String>(
+            ctx,
+            sleepChannel,
+            new RequestHandler<sleepReq, String>() {
+                @Override
+                public String handleRequest(sleepReq request) throws Exception {
+                    Thread.sleep(100);
+                    return "OK";
+                }
+            }
+    );
+
+    public static class sleepReq implements Serializable {}
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        dp.registerService(sleepReq.class, sleepChannel);
+
+        echoWorker.start();
+        sleepWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown(); // stops reactor and closes adapter sockets.
+
+        ctx.term(); // shuts down workers.
+    }
+
+    @Test(timeout = 2000)
+    public void testExecute() throws Exception {
+        final String[] answer = new String[1];
+
+        dp.execute("MSG", new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                answer[0] = reply;
+            }
+        });
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", answer[0]);
+    }
+
+    @Test(timeout = 2000)
+    public void testExecuteSync() throws Exception {
+        Assert.assertEquals("MSG", dp.executeSync("MSG"));
+    }
+
+    @Test(timeout = 2000, expected = TimeoutException.class)
+    public void testExecuteSyncTimeout() throws Exception {
+        dp.executeSync(new sleepReq(), 10);
+    }
+
+    @Test(timeout = 2000)
+    public void testTimeout() throws Exception {
+        final String[] answer = new String[1];
+
+        dp.execute(new sleepReq(), new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                answer[0] = "SUC";
+            }
+
+            @Override
+            public void onTimeout() {
+                answer[0] = "TOUT";
+            }
+        });
+        dp.gatherResults(10);
+
+        Assert.assertEquals("TOUT", answer[0]);
+    }
+
+    @Test(timeout = 5000)
+    public void testConcurrentCallers() throws Exception {
+        final int NUM_THREADS = 8;
+        final int NUM_REQUESTS = 100;
+
+        final AtomicInteger failures = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < NUM_THREADS; t++) {
+            final String prefix = "T" + t + "-";
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Thread caller = Thread.currentThread();
+                    final int[] received = new int[1];
+
+                    for (int i = 0; i < NUM_REQUESTS; i++) {
+                        final String msg = prefix + i;
+                        dp.execute(msg, new Callback<String>() {
+                            @Override
+                            public void onSuccess(String reply) {
+                                // callbacks are executed by the thread that issued the request
+                                if (!msg.equals(reply) || Thread.currentThread() != caller) {
+                                    failures.incrementAndGet();
+                                }
+                                received[0]++;
+                            }
+                        });
+                    }
+                    dp.gatherResults();
+
+                    if (received[0] != NUM_REQUESTS) failures.incrementAndGet();
+                    if (!(prefix + "sync").equals(dp.executeSync(prefix + "sync"))) failures.incrementAndGet();
+                }
+            }));
+        }
+
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        Assert.assertEquals(0, failures.get());
+    }
+
+    @Test(timeout = 2000)
+    public void testPromise() throws Exception {
+        final String[] answer = new String[2];
+
+        Callback<String> callback = new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                answer[0] = reply;
+            }
+        };
+        dp.execute("MSG", callback);
+
+        dp.promise(new Runnable() {
+            @Override
+            public void run() {
+                answer[1] = "promise";
+            }
+        }, callback);
+
+        dp.gatherResults();
+
+        Assert.assertEquals("MSG", answer[0]);
+        Assert.assertEquals("promise", answer[1]);
+    }
+}
@@ -0,0 +1,80 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Synchronous requests share the socket with asynchronous ones.
+ */
+public class DispatcherSyncTest {
+
+    private static final int DELAY = 200;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    // replies the request after sleeping for request ms
+    private final String sleepChannel = "inproc://syncSleepChannel";
+    private final ZmqWorker sleepWorker = new ZmqWorker<Integer, Integer>(
+            ctx,
+            sleepChannel,
+            new RequestHandler<Integer, Integer>() {
+                @Override
+                public Integer handleRequest(Integer request) throws Exception {
+                    Thread.sleep(request);
+                    return request;
+                }
+            }
+    );
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(Integer.class, sleepChannel);
+        sleepWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 5 * DELAY)
+    public void testLateReplyIsNotReturnedToNextCall() throws Exception {
+        try {
+            dp.executeSync(DELAY, DELAY / 4);
+            Assert.fail("Expected timeout");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        // the reply to the timed out request arrives first
+        Assert.assertEquals(0, dp.executeSync(0, 2 * DELAY));
+    }
+
+    @Test(timeout = 5 * DELAY)
+    public void testPendingCallbackSurvivesSyncCall() throws Exception {
+        final Integer[] reply = new Integer[1];
+
+        dp.execute(DELAY / 2, new Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer r) {
+                reply[0] = r;
+            }
+        });
+
+        // reply to the async request is received while waiting
+        Assert.assertEquals(0, dp.executeSync(0, 2 * DELAY));
+        Assert.assertNull(reply[0]);
+
+        dp.gatherResults(0);
+
+        Assert.assertEquals(Integer.valueOf(DELAY / 2), reply[0]);
+    }
+}
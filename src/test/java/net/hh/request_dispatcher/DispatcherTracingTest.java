@@ -0,0 +1,113 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampled requests are traced through client, worker and reply path.
+ */
+public class DispatcherTracingTest {
+
+    private static final int HANDLER_MS = 20;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final String echoChannel = "inproc://tracingEchoChannel";
+    private final ZmqWorker echoWorker = new ZmqWorker<String, String>(
+            ctx,
+            echoChannel,
+            new RequestHandler<String, String>() {
+                @Override
+                public String handleRequest(String request) throws Exception {
+                    Thread.sleep(HANDLER_MS);
+                    return request;
+                }
+            }
+    );
+
+    private final List<RequestTrace> traces = new ArrayList<RequestTrace>();
+
+    private final TraceSink collector = new TraceSink() {
+        @Override
+        public void accept(RequestTrace trace) {
+            traces.add(trace);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        dp.registerService(String.class, echoChannel);
+        echoWorker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+    }
+
+    @Test(timeout = 1000)
+    public void testStagesAreStamped() throws Exception {
+        dp.setTracing(String.class, new Tracing(1, collector));
+
+        Assert.assertEquals("MSG", dp.executeSync("MSG", 500));
+
+        Assert.assertEquals(1, traces.size());
+        RequestTrace trace = traces.get(0);
+
+        for (RequestTrace.Stage stage : RequestTrace.Stage.values()) {
+            Assert.assertTrue(stage + " " + trace, trace.getNanos(stage) >= 0);
+        }
+        Assert.assertTrue(trace.getNanos(RequestTrace.Stage.HANDLER) >= TimeUnit.MILLISECONDS.toNanos(HANDLER_MS));
+        Assert.assertTrue(trace.getWorkerNanos() >= trace.getNanos(RequestTrace.Stage.HANDLER));
+        Assert.assertTrue(trace.getTotalNanos() >= trace.getWorkerNanos());
+        Assert.assertEquals(echoChannel, trace.getEndpoint());
+    }
+
+    @Test(timeout = 1000)
+    public void testUnsampledRequestsAreNotTraced() throws Exception {
+        dp.setTracing(String.class, new Tracing(0, collector));
+
+        dp.execute("MSG", new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {}
+        });
+        dp.gatherResults();
+
+        Assert.assertTrue(traces.isEmpty());
+    }
+
+    @Test(timeout = 1000)
+    public void testTracesAreWrittenToFile() throws Exception {
+        File file = File.createTempFile("traces", ".csv");
+        file.delete();
+        file.deleteOnExit();
+
+        TraceFileWriter writer = new TraceFileWriter(file);
+        dp.setTracing(String.class, new Tracing(1, writer));
+
+        dp.executeSync("MSG", 500);
+        writer.close();
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            Assert.assertTrue(reader.readLine().startsWith("timestamp,endpoint"));
+            Assert.assertTrue(reader.readLine().contains(echoChannel));
+            Assert.assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.hh.request_dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HedgePolicyTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testNoHedgingBeforeMinSamples() throws Exception {
+        HedgePolicy policy = new HedgePolicy(95, 100);
+
+        for (int i = 0; i < HedgePolicy.MIN_SAMPLES - 1; i++) {
+            policy.recordLatency(MS);
+        }
+
+        Assert.assertEquals(-1, policy.onRequest());
+    }
+
+    @Test
+    public void testDelayIsPercentileOfLatencies() throws Exception {
+        HedgePolicy policy = new HedgePolicy(95, 100);
+
+        // 1..100 ms
+        for (int i = 1; i <= HedgePolicy.MIN_SAMPLES; i++) {
+            policy.recordLatency(i * MS);
+        }
+
+        Assert.assertEquals(95, policy.onRequest());
+    }
+
+    @Test
+    public void testBudgetLimitsHedges() throws Exception {
+        HedgePolicy policy = new HedgePolicy(95, 10);
+
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+            if (policy.tryHedge()) hedges++;
+        }
+
+        Assert.assertEquals(100, hedges);
+        Assert.assertEquals(1000, policy.getRequests());
+        Assert.assertEquals(100, policy.getHedgesSent());
+    }
+
+    @Test
+    public void testBudgetAllowsLimitedBurst() throws Exception {
+        HedgePolicy policy = new HedgePolicy(95, 50);
+
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+        }
+
+        int hedges = 0;
+        while (policy.tryHedge()) hedges++;
+
+        Assert.assertEquals(HedgePolicy.MAX_BURST, hedges);
+    }
+}
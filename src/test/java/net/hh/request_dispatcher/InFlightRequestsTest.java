@@ -0,0 +1,66 @@
+package net.hh.request_dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InFlightRequestsTest {
+
+    private final InFlightRequests inFlight = new InFlightRequests(KeyExtractor.EQUAL_REQUESTS);
+
+    private int cancelled = 0;
+    private int succeeded = 0;
+
+    @Test
+    public void testEqualRequestsAreCoalesced() throws Exception {
+        Callback shared = inFlight.join("REQ", callback());
+
+        Assert.assertNotNull(shared);
+        Assert.assertNull(inFlight.join("REQ", callback()));
+        Assert.assertEquals(1, inFlight.size());
+        Assert.assertEquals(1, inFlight.getCoalesced());
+
+        shared.success("REP");
+        Assert.assertEquals(0, inFlight.size());
+        Assert.assertNotNull(inFlight.join("REQ", callback()));
+    }
+
+    @Test
+    public void testCancelledRequestIsRemoved() throws Exception {
+        Callback shared = inFlight.join("REQ", callback());
+        inFlight.join("REQ", callback());
+
+        shared.cancelled();
+
+        Assert.assertEquals(0, inFlight.size());
+        Assert.assertEquals(2, cancelled);
+        Assert.assertNotNull(inFlight.join("REQ", callback()));
+    }
+
+    @Test
+    public void testDetachedCallbackIsNotNotified() throws Exception {
+        Callback shared = inFlight.join("REQ", callback());
+        Callback attached = callback();
+        inFlight.join("REQ", attached);
+
+        Assert.assertTrue(inFlight.detach("REQ", attached));
+        Assert.assertFalse(inFlight.detach("REQ", attached));
+
+        shared.success("REP");
+        Assert.assertEquals(1, succeeded);
+        Assert.assertFalse(inFlight.detach("REQ", attached));
+    }
+
+    private Callback<String> callback() {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                succeeded++;
+            }
+
+            @Override
+            void cancelled() {
+                InFlightRequestsTest.this.cancelled++;
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package net.hh.request_dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testBucketsAreContiguous() throws Exception {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            Assert.assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            Assert.assertEquals(bucket + 1, LatencyHistogram.bucketOf(highest + 1));
+        }
+    }
+
+    @Test
+    public void testPrecision() throws Exception {
+        for (long value = 1; value < LatencyHistogram.MAX_VALUE; value = value * 3 + 1) {
+            long highest = LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(value));
+            Assert.assertTrue(highest >= value);
+            Assert.assertTrue("value " + value, highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void testLargeValuesAreClamped() throws Exception {
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        Assert.assertEquals(0, LatencyHistogram.bucketOf(-1));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 1..100 ms
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * MS);
+        }
+
+        MetricsSnapshot snapshot = new MetricsSnapshot(0, 0, 0, 0, 0, 0, 0, histogram.snapshot());
+        Assert.assertEquals(100, snapshot.getLatencyCount());
+        Assert.assertEquals(50, snapshot.getLatency(50), 50 * 0.04);
+        Assert.assertEquals(99, snapshot.getLatency(99), 99 * 0.04);
+        Assert.assertEquals(100, snapshot.getLatencyMax(), 100 * 0.04);
+        Assert.assertEquals(50.5, snapshot.getLatencyMean(), 50.5 * 0.04);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        MetricsSnapshot snapshot = new MetricsSnapshot(0, 0, 0, 0, 0, 0, 0, new LatencyHistogram().snapshot());
+        Assert.assertEquals(0, snapshot.getLatency(99), 0);
+        Assert.assertEquals(0, snapshot.getLatencyMean(), 0);
+    }
+}
@@ -0,0 +1,95 @@
+package net.hh.request_dispatcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Serializable;
+
+public class ReplyCacheTest {
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        ReplyCache cache = new ReplyCache(1000, 1 << 20);
+
+        Assert.assertNull(cache.get("REQ"));
+        cache.put("REQ", "REP");
+
+        Assert.assertEquals("REP", cache.get(new String("REQ")));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testRepliesExpire() throws Exception {
+        ReplyCache cache = new ReplyCache(20, 1 << 20);
+
+        cache.put("REQ", "REP");
+        Thread.sleep(40);
+
+        Assert.assertNull(cache.get("REQ"));
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        ReplyCache cache = cacheOf(3);
+        cache.put("A", "REP");
+        cache.put("B", "REP");
+        cache.put("C", "REP");
+        cache.get("A");
+
+        cache.put("D", "REP");
+
+        Assert.assertEquals(3, cache.getSize());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNull(cache.get("B"));
+        Assert.assertEquals("REP", cache.get("A"));
+        Assert.assertEquals("REP", cache.get("C"));
+        Assert.assertEquals("REP", cache.get("D"));
+    }
+
+    @Test
+    public void testReplaceDoesNotLeakBytes() throws Exception {
+        ReplyCache cache = new ReplyCache(1000, 1 << 20);
+
+        cache.put("REQ", "REP");
+        long bytes = cache.getBytes();
+        cache.put("REQ", "REP");
+
+        Assert.assertEquals(bytes, cache.getBytes());
+    }
+
+    @Test
+    public void testFrameSizesAreCharged() throws Exception {
+        ReplyCache cache = new ReplyCache(1000, 1 << 20);
+
+        cache.put("REQ", "REP", 300);
+
+        Assert.assertEquals(300 + ReplyCache.ENTRY_OVERHEAD, cache.getBytes());
+    }
+
+    @Test
+    public void testKeyExtractor() throws Exception {
+        ReplyCache cache = new ReplyCache(1000, 1 << 20, new KeyExtractor() {
+            @Override
+            public Object keyOf(Serializable request) {
+                return request.toString().split(":")[0]; // id
+            }
+        });
+
+        cache.put(new TestDTO("1:first"), "REP");
+
+        Assert.assertEquals("REP", cache.get(new TestDTO("1:second")));
+        Assert.assertNull(cache.get(new TestDTO("2:first")));
+    }
+
+    /**
+     * @return cache that holds n replies "REP"
+     */
+    private static ReplyCache cacheOf(int n) {
+        ReplyCache probe = new ReplyCache(1000, 1 << 20);
+        probe.put("X", "REP");
+        return new ReplyCache(1000, n * probe.getBytes());
+    }
+}
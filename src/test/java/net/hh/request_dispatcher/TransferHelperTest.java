@@ -39,7 +39,7 @@ public class TransferHelperTest {
         TransferHelper.sendMessage(server, new TransferWrapper("Hi", 0));
         TransferWrapper reply = TransferHelper.recvMessage(client, 0);
         Assert.assertEquals("Hi",reply.getObject().toString());
-        Assert.assertEquals((Integer) 0 , reply.getCallbackId());
+        Assert.assertEquals(0, reply.getCallbackId());
     }
 
     @Test
@@ -67,7 +67,11 @@ public class TransferHelperTest {
         msg.push(new byte[0]); // Add empty frame as REQ envelope
 
         msg.send(server);
-        TransferWrapperRaw reply = TransferHelper.recvMessage(client, 0);
+        TransferWrapper reply = TransferHelper.recvMessage(client, 0);
+
+        // payload is deserialized lazily
+        Assert.assertEquals(0, reply.getCallbackId());
+        reply.getObject();
     }
 
     @Test(expected = TransferHelper.ProtocolException.class)
@@ -82,5 +86,126 @@ public class TransferHelperTest {
         TransferWrapperRaw reply = TransferHelper.recvMessage(client, 0);
     }
 
+    @Test
+    public void testHeaderFields() throws Exception {
+        long deadline = System.currentTimeMillis() + 60000;
+        TransferHelper.sendMessage(server, new TransferWrapper("Hi", 7, deadline, TransferHeader.VERSION_2, Codec.JAVA));
+        TransferWrapper reply = TransferHelper.recvMessage(client, 0);
+
+        Assert.assertEquals(TransferHeader.VERSION_2, reply.getVersion());
+        Assert.assertEquals(7, reply.getCallbackId());
+        Assert.assertEquals(TransferHeader.requestTypeIdOf(String.class), reply.getRequestTypeId());
+        Assert.assertTrue(Math.abs(deadline - reply.getDeadline()) < 1000);
+    }
+
+    @Test
+    public void testDeadlineIsTransmittedRelative() throws Exception {
+        // the clock of the recipient may be ahead of the sender's
+        byte[] header = TransferHeader.encode(0, Codec.JAVA.getId(), 7, 1,
+                TransferHeader.budgetOf(System.currentTimeMillis() + 500));
+
+        long budget = TransferHeader.budget(header);
+        Assert.assertTrue("budget " + budget, budget > 0 && budget <= 500);
+        Assert.assertTrue(TransferHeader.deadlineOf(budget) > System.currentTimeMillis());
+
+        Assert.assertEquals(TransferHeader.NO_DEADLINE, TransferHeader.budgetOf(TransferHeader.NO_DEADLINE));
+        Assert.assertEquals(TransferHeader.NO_DEADLINE, TransferHeader.deadlineOf(TransferHeader.NO_DEADLINE));
+        // expired on send: still a deadline
+        Assert.assertEquals(1, TransferHeader.budgetOf(System.currentTimeMillis() - 500));
+    }
+
+    @Test
+    public void testHeaderLittleEndian() throws Exception {
+        byte[] header = TransferHeader.encode(0, Codec.JAVA.getId(), 0x01020304, -1, -2L);
+
+        Assert.assertEquals(TransferHeader.SIZE, header.length);
+        Assert.assertEquals(TransferHeader.VERSION_2, header[0]);
+        Assert.assertEquals(0x04, header[4]);
+        Assert.assertEquals(0x01, header[7]);
+        Assert.assertEquals(0x01020304, TransferHeader.callbackId(header));
+        Assert.assertEquals(-1, TransferHeader.requestTypeId(header));
+        Assert.assertEquals(-2L, TransferHeader.budget(header));
+    }
+
+    @Test
+    public void testVersion1Request() throws Exception {
+        ZMsg msg = new ZMsg();
+
+        msg.push(SerializationHelper.serialize("Hi")); // payload
+        msg.push(TransferHelper.int2bytes(300)); // v1 callback ID
+        msg.push(new byte[0]);
+
+        msg.send(server);
+        TransferWrapper request = TransferHelper.recvMessage(client, 0);
+
+        Assert.assertEquals(TransferHeader.VERSION_1, request.getVersion());
+        Assert.assertEquals(300, request.getCallbackId());
+
+        // reply in the version of the request
+        request.constructReply("Ho").toMessage().send(client);
+        ZMsg reply = ZMsg.recvMsg(server);
+
+        reply.pollLast();
+        Assert.assertEquals(300, TransferHelper.bytes2int(reply.pollLast().getData()));
+    }
+
+    @Test(expected = TransferHelper.ProtocolException.class)
+    public void testUnknownHeader() throws Exception {
+        ZMsg msg = new ZMsg();
+
+        msg.push(SerializationHelper.serialize("Hi")); // payload
+        msg.push(new byte[TransferHeader.SIZE - 1]); // neither v1 nor v2
+        msg.push(new byte[0]);
+
+        msg.send(server);
+        TransferHelper.recvMessage(client, 0);
+    }
 
+    @Test
+    public void testHeaderFlags() throws Exception {
+        TransferHelper.sendRequest(server, "Hi", -1, TransferHeader.NO_DEADLINE, TransferHeader.VERSION_2, Codec.JAVA);
+        TransferWrapper oneWay = TransferHelper.recvMessage(client, 0);
+
+        Assert.assertTrue(oneWay.isOneWayRequest());
+        Assert.assertFalse(oneWay.isError());
+
+        TransferHelper.sendReply(server, oneWay, new RequestException(new Exception("ERR")), Codec.JAVA);
+        TransferWrapper error = TransferHelper.recvMessage(client, 0);
+
+        Assert.assertEquals(TransferHeader.FLAG_ERROR | TransferHeader.FLAG_ONE_WAY, error.getFlags());
+        Assert.assertTrue(error.isError());
+        Assert.assertTrue(error.getObject() instanceof RequestException);
+    }
+
+    @Test
+    public void testTraceStampsAreReturnedWithReply() throws Exception {
+        long[] trace = new long[RequestTrace.STAMPS];
+        trace[RequestTrace.CLIENT_SEND] = 42;
+
+        TransferHelper.sendRequest(server, "Hi", 1, TransferHeader.NO_DEADLINE, TransferHeader.VERSION_2, Codec.JAVA,
+                0, trace);
+        TransferWrapper request = TransferHelper.recvMessage(client, 0);
+
+        Assert.assertEquals(TransferHeader.FLAG_TRACE, request.getFlags() & TransferHeader.FLAG_TRACE);
+        Assert.assertEquals(42, request.getTrace()[RequestTrace.CLIENT_SEND]);
+        Assert.assertTrue(request.getTrace()[RequestTrace.CLIENT_SERIALIZED] != 0);
+
+        request.stamp(RequestTrace.WORKER_RECEIVE);
+        TransferHelper.sendReply(client, request, "Ho", Codec.JAVA);
+        TransferWrapper reply = TransferHelper.recvMessage(server, 0);
+
+        Assert.assertEquals("Ho", reply.getObject());
+        Assert.assertEquals(42, reply.getTrace()[RequestTrace.CLIENT_SEND]);
+        Assert.assertEquals(request.getTrace()[RequestTrace.WORKER_RECEIVE], reply.getTrace()[RequestTrace.WORKER_RECEIVE]);
+        Assert.assertTrue(reply.getTrace()[RequestTrace.REPLY_SERIALIZED] != 0);
+    }
+
+    @Test
+    public void testUntracedMessageHasNoTrace() throws Exception {
+        TransferHelper.sendRequest(server, "Hi", 1, TransferHeader.NO_DEADLINE, TransferHeader.VERSION_2, Codec.JAVA);
+        TransferWrapper request = TransferHelper.recvMessage(client, 0);
+
+        Assert.assertNull(request.getTrace());
+        request.stamp(RequestTrace.WORKER_RECEIVE); // no-op
+    }
 }
@@ -165,6 +165,65 @@ public class ZmqAdapterAsyncTest {
         Assert.assertEquals("MSG1", answer[1]);
     }
 
+    @Test(timeout = 1000)
+    public void testDrain() throws Exception {
+        final int NUM_REQ = 10;
+        final int[] answers = new int[1];
+
+        for (int i = 0; i < NUM_REQ; i++) {
+            echoAdapter.execute("MSG" + i, new Callback<String>() {
+                @Override
+                public void onSuccess(String reply) {
+                    answers[0]++;
+                }
+            });
+        }
+
+        int received = 0;
+        while (received < NUM_REQ) {
+            received += echoAdapter.drain();
+        }
+
+        Assert.assertEquals(NUM_REQ, received);
+        Assert.assertEquals(NUM_REQ, answers[0]);
+        Assert.assertFalse(echoAdapter.hasPendingCallbacks());
+    }
+
+    @Test(timeout = 2000)
+    public void testSendAfterTermFailsCallback() throws Exception {
+        final ZMQ.Context termCtx = ZMQ.context(0);
+        ZmqAdapterAsync<String, String> adapter = new ZmqAdapterAsync<String, String>(termCtx, "inproc://termChannel");
+        final String[] answer = new String[1];
+
+        // blocks until the adapter closes its socket
+        Thread terminator = new Thread() {
+            @Override
+            public void run() {
+                termCtx.term();
+            }
+        };
+        terminator.start();
+        Thread.sleep(100);
+
+        adapter.execute("MSG", new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                answer[0] = reply;
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                answer[0] = "ERR";
+            }
+        });
+        terminator.join();
+
+        Assert.assertEquals("ERR", answer[0]);
+        Assert.assertFalse(adapter.hasPendingCallbacks());
+        Assert.assertEquals(0, adapter.getMetrics().getSent());
+        Assert.assertEquals(1, adapter.getMetrics().getUnsent());
+    }
+
     @Test(timeout = 1000)
     public void testOneWayExecute() throws Exception {
 //        final String [] answer = new String[1];
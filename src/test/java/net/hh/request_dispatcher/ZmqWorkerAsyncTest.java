@@ -0,0 +1,116 @@
+package net.hh.request_dispatcher;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single worker with an AsyncRequestHandler keeps many slow requests in flight.
+ */
+public class ZmqWorkerAsyncTest {
+
+    private static final int DELAY = 200;
+    private static final int NUM_REQUESTS = 100;
+
+    private final ZMQ.Context ctx = ZMQ.context(0);
+
+    private final Dispatcher dp = new Dispatcher(ctx);
+
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+
+    private final String asyncChannel = "inproc://asyncWorkerChannel";
+    private final ZmqWorker asyncWorker = new ZmqWorker<String, String>(
+            ctx,
+            asyncChannel,
+            new AsyncRequestHandler<String, String>() {
+                @Override
+                public CompletableFuture<String> handleRequest(final String request) throws Exception {
+                    if (request.equals("THROW")) throw new IllegalArgumentException(request);
+
+                    final CompletableFuture<String> reply = new CompletableFuture<String>();
+                    io.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (request.equals("FAIL")) {
+                                reply.completeExceptionally(new IllegalStateException(request));
+                            } else {
+                                reply.complete(request);
+                            }
+                        }
+                    }, DELAY, TimeUnit.MILLISECONDS);
+                    return reply;
+                }
+            }
+    );
+
+    private final String[] results = new String[NUM_REQUESTS];
+
+    @Before
+    public void setUp() throws Exception {
+        asyncWorker.start();
+        dp.registerService(String.class, asyncChannel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dp.shutdown();
+        ctx.term();
+        io.shutdownNow();
+    }
+
+    @Test(timeout = 5 * DELAY)
+    public void testRequestsAreHandledConcurrently() throws Exception {
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            dp.execute("MSG" + i, callback(i));
+        }
+        dp.gatherResults();
+
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            Assert.assertEquals("MSG" + i, results[i]);
+        }
+    }
+
+    @Test(timeout = 5 * DELAY)
+    public void testFailuresAreForwarded() throws Exception {
+        dp.execute("FAIL", callback(0));
+        dp.execute("THROW", callback(1));
+        dp.execute("MSG", callback(2));
+        dp.gatherResults();
+
+        Assert.assertEquals("ERR", results[0]);
+        Assert.assertEquals("ERR", results[1]);
+        Assert.assertEquals("MSG", results[2]);
+    }
+
+    @Test(timeout = 5 * DELAY)
+    public void testBatch() throws Exception {
+        dp.executeBatch(Arrays.asList("A", "B", "FAIL"), callback(0), callback(1), callback(2));
+        dp.gatherResults();
+
+        Assert.assertEquals("A", results[0]);
+        Assert.assertEquals("B", results[1]);
+        Assert.assertEquals("ERR", results[2]);
+    }
+
+    private Callback<String> callback(final int index) {
+        return new Callback<String>() {
+            @Override
+            public void onSuccess(String reply) {
+                results[index] = reply;
+            }
+
+            @Override
+            public void onError(RequestException e) {
+                results[index] = "ERR";
+            }
+        };
+    }
+}
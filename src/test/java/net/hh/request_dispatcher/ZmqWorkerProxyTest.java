@@ -94,4 +94,49 @@ public class ZmqWorkerProxyTest {
         // proxy does not own the context
         ctx.term();
     }
+
+    @Test(timeout = 5000)
+    public void testThreadPerRequest() throws Exception {
+
+        final int DELAY = 200;
+        int NUM_REQUESTS = 200;
+
+        // blocking handler, far more requests than io threads
+        proxy.addThreadPerRequest(2, new RequestHandler<String, String>() {
+            @Override
+            public String handleRequest(String request) throws Exception {
+                Thread.sleep(DELAY);
+                return request;
+            }
+        });
+
+        proxy.startWorkers();
+
+        Dispatcher dp = new Dispatcher(ctx);
+        dp.registerService(String.class, inputChannel);
+
+        final Set<String> answers = new HashSet<String>(NUM_REQUESTS);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            dp.execute("" + i, new Callback<String>() {
+                @Override
+                public void onSuccess(String reply) {
+                    answers.add(reply);
+                }
+            });
+        }
+
+        dp.gatherResults();
+        long duration = System.currentTimeMillis() - start;
+        dp.shutdown();
+
+        Assert.assertEquals(NUM_REQUESTS, answers.size());
+        Assert.assertTrue("took " + duration + "ms", duration < 5 * DELAY);
+
+        proxy.shutdown();
+
+        // proxy does not own the context
+        ctx.term();
+    }
 }